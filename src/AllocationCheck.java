@@ -0,0 +1,109 @@
+import java.lang.management.ManagementFactory;
+
+// Checks that steady-state gameplay stays within an allocation budget.
+// Each shipped level is played headless with scripted input (walking,
+// turning, firing) for a number of warm up frames, so the JIT has compiled
+// the game. Play then carries on along the script onto ground the warm up
+// has not seen while the bytes the game thread allocates are read from the
+// JVM. Fails with exit status 1 when any level allocates more than its
+// budget per frame, so it can run on every build like a test.
+//
+// The game itself should allocate nothing per frame, what is left is Java2D
+// and the budget is made of its costs rather than of what a level measures:
+// - FRAME_BYTES for every frame. Java2D allocates the state of each
+//   Graphics2D it hands out and a few small objects for shapes, blits and
+//   the transform stack, 0.6 to 1.1 KB a frame on the shipped levels. The
+//   budget leaves about 1 KB above the highest of those, so a kilobyte of
+//   new garbage a frame fails at least one level.
+// - COLUMN_DRAW_BYTES for every enemy column drawn. An enemy column is a
+//   translucent scaled draw, which Java2D cannot blit: it allocates two
+//   AffineTransforms (72 bytes each) and two coordinate arrays (64 and 80
+//   bytes) for each one.
+// A level with more enemies in view gets more.
+//
+// Usage: java -Djava.awt.headless=true AllocationCheck [--warmup N] [--frames N] [--budget bytes-per-frame]
+public class AllocationCheck
+{
+    private static final long FRAME_BYTES = 2048;
+    private static final long COLUMN_DRAW_BYTES = 288;
+
+    public static void main(String[] args)
+    {
+        int warmup = 600;
+        int frames = 600;
+        long budget = -1;
+        for (int i = 0; i + 1 < args.length; i++)
+        {
+            if (args[i].equals("--warmup"))
+                warmup = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--frames"))
+                frames = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--budget"))
+                budget = Long.parseLong(args[++i]);
+        }
+        System.setProperty("java.awt.headless", "true");
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported())
+        {
+            System.out.println("Error: this JVM cannot measure allocated memory per thread");
+            System.exit(1);
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Main main = new Main();
+        main.setRandomSeed(1);
+        main.init();
+        main.initialised = true;
+        // Paint once first, enemies need the graphics to update
+        main.runHeadlessFrame(16);
+
+        boolean passed = true;
+        long thread = Thread.currentThread().threadId();
+        for (int level = 1; level <= main.getNumOfLevels(); level++)
+        {
+            main.startLevel(level);
+            play(main, warmup);
+
+            // Carry on from where the warm up stopped, onto ground it has not seen
+            long draws = Enemy.getColumnDraws();
+            long before = threads.getThreadAllocatedBytes(thread);
+            play(main, frames);
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+            draws = Enemy.getColumnDraws() - draws;
+
+            long perFrame = allocated / frames;
+            long levelBudget = budget >= 0 ? budget : FRAME_BYTES + COLUMN_DRAW_BYTES * draws / frames;
+            boolean ok = perFrame <= levelBudget;
+            passed &= ok;
+            System.out.printf("Level %d: %d bytes over %d frames, %d per frame, %.1f enemy column draws per frame " +
+                              "(budget %d) %s%n", level, allocated, frames, perFrame, (double)draws / frames,
+                              levelBudget, ok ? "OK" : "FAIL");
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    // Runs frames ticks of scripted play at 60 frames per second. The player
+    // is kept alive so every frame is a gameplay frame.
+    private static void play(Main main, int frames)
+    {
+        for (int frame = 0; frame < frames; frame++)
+        {
+            // Walk in bursts, turn steadily and fire a few times a second
+            int cycle = frame % 120;
+            if (cycle == 0)
+                main.handleKey(java.awt.event.KeyEvent.VK_W, true);
+            else if (cycle == 60)
+                main.handleKey(java.awt.event.KeyEvent.VK_W, false);
+            main.handleLook(12, 0);
+            if (frame % 15 == 0)
+                main.handleClick(main.width() / 2, main.height() / 2, java.awt.event.MouseEvent.BUTTON1);
+
+            Player player = main.getPlayer();
+            player.restoreHealth(player.getMaxHealth());
+            main.runHeadlessFrame(16);
+        }
+        main.handleKey(java.awt.event.KeyEvent.VK_W, false);
+    }
+}
@@ -0,0 +1,42 @@
+// A point in the world that sounds are played from. An emitter either
+// follows an Entity or stays at a fixed position. The mixer reads its
+// position every block, so a moving enemy keeps panning while it growls.
+public class AudioEmitter
+{
+    private final Entity entity;
+    private double x, y;
+
+    // Emitter that follows an entity
+    public AudioEmitter(Entity entity)
+    {
+        this.entity = entity;
+    }
+
+    // Emitter at a fixed position
+    public AudioEmitter(double x, double y)
+    {
+        this.entity = null;
+        this.x = x;
+        this.y = y;
+    }
+
+    public double getX()
+    {
+        if (entity != null)
+            return entity.getX();
+        return x;
+    }
+
+    public double getY()
+    {
+        if (entity != null)
+            return entity.getY();
+        return y;
+    }
+
+    public void setPosition(double x, double y)
+    {
+        this.x = x;
+        this.y = y;
+    }
+}
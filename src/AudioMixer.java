@@ -0,0 +1,540 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.sound.sampled.*;
+
+// Software mixer that owns a single SourceDataLine and mixes every
+// sound effect into it from a fixed pool of voices. Playing a sound
+// only enqueues a request, so no lines are opened during gameplay.
+// Voices played from an AudioEmitter are attenuated by distance, panned
+// relative to the listener and muffled by walls in between.
+public class AudioMixer implements Runnable
+{
+    //-------------------------------------------------------
+    // Output format and pool sizes
+    //-------------------------------------------------------
+    public static final float SAMPLE_RATE = 44100f;
+    public static final int MAX_VOICES = 32;
+    private static final int CHANNELS = 2;
+    private static final int FRAME_SIZE = 4; // 16-bit stereo
+    private static final int BLOCK_FRAMES = 512;
+    private static final int LINE_BLOCKS = 4;
+    private static final int QUEUE_SIZE = 64; // must be a power of two
+    private static final int MAX_STREAMS = 4;
+
+    //-------------------------------------------------------
+    // Positional audio
+    //-------------------------------------------------------
+    private static final double REFERENCE_DISTANCE = 32; // full volume inside one tile
+    private static final double MAX_DISTANCE = 480;      // silent beyond 15 tiles
+    private static final float OCCLUSION_GAIN = 0.35f;   // gain through a wall
+    private static final float AUDIBLE_GAIN = 0.02f;     // quieter voices are culled
+
+    private volatile double listenerX, listenerY, listenerAngle;
+    private volatile GameMap occlusionMap;
+    private volatile int occlusionTileSize;
+
+    //-------------------------------------------------------
+    // Voice pool (only touched by the mixer thread)
+    //-------------------------------------------------------
+    private final GameEngine.AudioClip[] voiceClip = new GameEngine.AudioClip[MAX_VOICES];
+    private final byte[][] voiceData = new byte[MAX_VOICES][];
+    private final int[] voiceChannels = new int[MAX_VOICES];
+    private final int[] voiceFrames = new int[MAX_VOICES];
+    private final double[] voicePosition = new double[MAX_VOICES];
+    private final double[] voiceStep = new double[MAX_VOICES];
+    private final float[] voiceGainL = new float[MAX_VOICES];
+    private final float[] voiceGainR = new float[MAX_VOICES];
+    private final float[] voiceBaseGain = new float[MAX_VOICES];
+    private final AudioEmitter[] voiceEmitter = new AudioEmitter[MAX_VOICES];
+    private final long[] voiceStarted = new long[MAX_VOICES];
+    private long voiceCounter = 0;
+    private volatile int activeVoices = 0;
+
+    //-------------------------------------------------------
+    // Play request queue (bounded, multi-producer, single-consumer)
+    //-------------------------------------------------------
+    private final GameEngine.AudioClip[] queueClip = new GameEngine.AudioClip[QUEUE_SIZE];
+    private final float[] queueGainL = new float[QUEUE_SIZE];
+    private final float[] queueGainR = new float[QUEUE_SIZE];
+    private final AudioEmitter[] queueEmitter = new AudioEmitter[QUEUE_SIZE];
+    private final AtomicLongArray queueSequence = new AtomicLongArray(QUEUE_SIZE);
+    private final AtomicLong queueTail = new AtomicLong();
+    private long queueHead = 0;
+
+    //-------------------------------------------------------
+    // Streams decoded from disk on the mixer thread
+    //-------------------------------------------------------
+    private final AtomicReferenceArray<GameEngine.AudioStream> streams =
+        new AtomicReferenceArray<GameEngine.AudioStream>(MAX_STREAMS);
+
+    //-------------------------------------------------------
+    // Output
+    //-------------------------------------------------------
+    private final int[] mixBuffer = new int[BLOCK_FRAMES * CHANNELS];
+    private final byte[] outBuffer = new byte[BLOCK_FRAMES * FRAME_SIZE];
+    private SourceDataLine line;
+    private Thread thread;
+    private volatile boolean running = false;
+
+    // Lazily created shared instance
+    private static class Holder
+    {
+        static final AudioMixer INSTANCE = new AudioMixer();
+    }
+
+    public static AudioMixer getInstance()
+    {
+        return Holder.INSTANCE;
+    }
+
+    private AudioMixer()
+    {
+        for (int i = 0; i < QUEUE_SIZE; i++)
+        {
+            queueSequence.set(i, i);
+        }
+
+        try
+        {
+            // Open the single output line used for every sound effect
+            AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, CHANNELS, true, false);
+            line = AudioSystem.getSourceDataLine(format);
+            line.open(format, BLOCK_FRAMES * FRAME_SIZE * LINE_BLOCKS);
+            line.start();
+
+            running = true;
+            thread = new Thread(this, "AudioMixer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            thread.start();
+        }
+        catch (Exception e)
+        {
+            // Leave the mixer disabled, play requests are then dropped
+            System.out.println("Error: could not open audio output line\n");
+            line = null;
+        }
+    }
+
+    // Returns true if the output line was opened
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    // Returns the number of voices mixed in the last block
+    public int getActiveVoices()
+    {
+        return activeVoices;
+    }
+
+    // Registers a stream to be decoded and mixed until it stops.
+    // Returns false if the mixer is off or all stream slots are in use.
+    public boolean addStream(GameEngine.AudioStream stream)
+    {
+        if (!running)
+        {
+            return false;
+        }
+
+        for (int i = 0; i < MAX_STREAMS; i++)
+        {
+            if (streams.get(i) == stream)
+            {
+                return true;
+            }
+        }
+        for (int i = 0; i < MAX_STREAMS; i++)
+        {
+            if (streams.compareAndSet(i, null, stream))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Opens the next pass of every looping stream that needs one. Called by
+    // the game thread each tick, so the mixer thread never waits on a file.
+    public void prepareStreams()
+    {
+        for (int i = 0; i < MAX_STREAMS; i++)
+        {
+            GameEngine.AudioStream stream = streams.get(i);
+            if (stream != null)
+            {
+                stream.prepare();
+            }
+        }
+    }
+
+    // Sets where the player hears from, angle in radians
+    public void setListener(double x, double y, double angle)
+    {
+        listenerX = x;
+        listenerY = y;
+        listenerAngle = angle;
+    }
+
+    // Sets the map used to muffle sounds behind walls, null disables occlusion
+    public void setOcclusionMap(GameMap map, int tileSize)
+    {
+        occlusionTileSize = tileSize;
+        occlusionMap = map;
+    }
+
+    // Queues a clip to be played with separate left and right gains.
+    // Does not allocate; returns false if the mixer is off or the queue is full.
+    public boolean play(GameEngine.AudioClip clip, float gainL, float gainR)
+    {
+        return enqueue(clip, gainL, gainR, null);
+    }
+
+    // Queues a clip to be played from an emitter. Sounds too far away
+    // or too muffled to be heard are dropped here instead of being mixed.
+    public boolean play(GameEngine.AudioClip clip, AudioEmitter emitter, float gain)
+    {
+        if (emitter == null)
+        {
+            return enqueue(clip, gain, gain, null);
+        }
+        if (gain * attenuation(emitter.getX(), emitter.getY()) < AUDIBLE_GAIN)
+        {
+            return false;
+        }
+        return enqueue(clip, gain, gain, emitter);
+    }
+
+    private boolean enqueue(GameEngine.AudioClip clip, float gainL, float gainR, AudioEmitter emitter)
+    {
+        if (!running || clip == null)
+        {
+            return false;
+        }
+
+        long position = queueTail.get();
+        while (true)
+        {
+            int index = (int)(position & (QUEUE_SIZE - 1));
+            long difference = queueSequence.get(index) - position;
+            if (difference == 0)
+            {
+                if (queueTail.compareAndSet(position, position + 1))
+                {
+                    queueClip[index] = clip;
+                    queueGainL[index] = gainL;
+                    queueGainR[index] = gainR;
+                    queueEmitter[index] = emitter;
+
+                    // Publish the slot to the mixer thread
+                    queueSequence.set(index, position + 1);
+                    return true;
+                }
+                position = queueTail.get();
+            }
+            else if (difference < 0)
+            {
+                // Queue is full
+                return false;
+            }
+            else
+            {
+                position = queueTail.get();
+            }
+        }
+    }
+
+    // Converts a volume in decibels to a linear gain
+    public static float decibelsToGain(float volume)
+    {
+        return (float)Math.pow(10.0, volume / 20.0);
+    }
+
+    @Override public void run()
+    {
+        while (running)
+        {
+            drainQueue();
+            mixBlock();
+
+            // Blocks until the line has room, which paces the mixer
+            line.write(outBuffer, 0, outBuffer.length);
+        }
+    }
+
+    // Starts a voice for every request waiting in the queue
+    private void drainQueue()
+    {
+        while (true)
+        {
+            int index = (int)(queueHead & (QUEUE_SIZE - 1));
+            if (queueSequence.get(index) != queueHead + 1)
+            {
+                return;
+            }
+
+            GameEngine.AudioClip clip = queueClip[index];
+            float gainL = queueGainL[index];
+            float gainR = queueGainR[index];
+            AudioEmitter emitter = queueEmitter[index];
+            queueClip[index] = null;
+            queueEmitter[index] = null;
+
+            // Hand the slot back to the producers
+            queueSequence.set(index, queueHead + QUEUE_SIZE);
+            queueHead++;
+
+            startVoice(clip, gainL, gainR, emitter);
+        }
+    }
+
+    private void startVoice(GameEngine.AudioClip clip, float gainL, float gainR, AudioEmitter emitter)
+    {
+        AudioFormat format = clip.getAudioFormat();
+        int channels = format.getChannels();
+        int frameSize = format.getFrameSize();
+        if (frameSize != 2 * channels || channels < 1 || channels > 2)
+        {
+            // Only 16-bit mono or stereo data is mixed
+            return;
+        }
+
+        float baseGain = gainL;
+        if (emitter != null)
+        {
+            float attenuation = attenuation(emitter.getX(), emitter.getY());
+            gainL *= attenuation;
+            gainR *= attenuation;
+        }
+
+        int voice = findVoice(gainL + gainR);
+        if (voice < 0)
+        {
+            return;
+        }
+
+        GameEvents.AudioVoiceStartEvent event = new GameEvents.AudioVoiceStartEvent();
+        if (event.shouldCommit())
+        {
+            event.voice = voice;
+            event.activeVoices = activeVoices;
+            event.stolen = voiceClip[voice] != null;
+            event.positional = emitter != null;
+            event.clipLength = (long)(clip.getBufferSize() / frameSize / format.getSampleRate() * 1e9);
+            event.commit();
+        }
+
+        voiceClip[voice] = clip;
+        voiceData[voice] = clip.getData();
+        voiceChannels[voice] = channels;
+        voiceFrames[voice] = (int)(clip.getBufferSize() / frameSize);
+        voicePosition[voice] = 0;
+        voiceStep[voice] = format.getSampleRate() / SAMPLE_RATE;
+        voiceGainL[voice] = gainL;
+        voiceGainR[voice] = gainR;
+        voiceBaseGain[voice] = baseGain;
+        voiceEmitter[voice] = emitter;
+        voiceStarted[voice] = voiceCounter++;
+    }
+
+    // Returns a free voice, or steals the quietest (then oldest) one
+    // if it is quieter than the new sound
+    private int findVoice(float gain)
+    {
+        int steal = -1;
+        float stealGain = Float.MAX_VALUE;
+        for (int i = 0; i < MAX_VOICES; i++)
+        {
+            if (voiceClip[i] == null)
+            {
+                return i;
+            }
+
+            float voiceGain = voiceGainL[i] + voiceGainR[i];
+            if (voiceGain < stealGain || (voiceGain == stealGain && voiceStarted[i] < voiceStarted[steal]))
+            {
+                steal = i;
+                stealGain = voiceGain;
+            }
+        }
+
+        if (stealGain <= gain)
+        {
+            return steal;
+        }
+        return -1;
+    }
+
+    // Mixes every active voice into the output buffer
+    private void mixBlock()
+    {
+        int[] mix = mixBuffer;
+        for (int i = 0; i < mix.length; i++)
+        {
+            mix[i] = 0;
+        }
+
+        int active = 0;
+        for (int voice = 0; voice < MAX_VOICES; voice++)
+        {
+            if (voiceClip[voice] == null)
+            {
+                continue;
+            }
+
+            if (voiceEmitter[voice] != null && !spatialise(voice))
+            {
+                // Inaudible this block, keep time moving without mixing
+                skipVoice(voice);
+                continue;
+            }
+            mixVoice(voice);
+            active++;
+        }
+        activeVoices = active;
+
+        // Streams decode their next chunk here when needed
+        for (int i = 0; i < MAX_STREAMS; i++)
+        {
+            GameEngine.AudioStream stream = streams.get(i);
+            if (stream != null && !stream.mixInto(mix, BLOCK_FRAMES))
+            {
+                streams.compareAndSet(i, stream, null);
+
+                // Restarted while being released
+                if (stream.mPlaying)
+                {
+                    addStream(stream);
+                }
+            }
+        }
+
+        // Clamp and convert to 16-bit little endian
+        byte[] out = outBuffer;
+        for (int i = 0, o = 0; i < mix.length; i++, o += 2)
+        {
+            int sample = mix[i];
+            if (sample > Short.MAX_VALUE)
+            {
+                sample = Short.MAX_VALUE;
+            }
+            else if (sample < Short.MIN_VALUE)
+            {
+                sample = Short.MIN_VALUE;
+            }
+            out[o] = (byte)sample;
+            out[o + 1] = (byte)(sample >> 8);
+        }
+    }
+
+    // Updates a positional voice's gains from its emitter.
+    // Returns false if the voice cannot currently be heard.
+    private boolean spatialise(int voice)
+    {
+        AudioEmitter emitter = voiceEmitter[voice];
+        double ex = emitter.getX();
+        double ey = emitter.getY();
+        float gain = voiceBaseGain[voice] * attenuation(ex, ey);
+        if (gain < AUDIBLE_GAIN)
+        {
+            // Silent voices are the first to be stolen
+            voiceGainL[voice] = 0.0f;
+            voiceGainR[voice] = 0.0f;
+            return false;
+        }
+
+        // Pan from the emitter's angle relative to where the listener faces
+        double relative = Math.atan2(ey - listenerY, ex - listenerX) - listenerAngle;
+        float pan = (float)Math.sin(relative); // -1 left, +1 right
+        voiceGainL[voice] = gain * Math.min(1.0f, 1.0f - pan);
+        voiceGainR[voice] = gain * Math.min(1.0f, 1.0f + pan);
+        return true;
+    }
+
+    // Distance and wall attenuation from the listener to a point
+    private float attenuation(double x, double y)
+    {
+        double dx = x - listenerX;
+        double dy = y - listenerY;
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance >= MAX_DISTANCE)
+        {
+            return 0.0f;
+        }
+
+        float gain = (float)(REFERENCE_DISTANCE / Math.max(REFERENCE_DISTANCE, distance) *
+                             (1.0 - distance / MAX_DISTANCE));
+
+        GameMap map = occlusionMap;
+        if (map != null && !map.hasLineOfSight(listenerX, listenerY, x, y, occlusionTileSize))
+        {
+            gain *= OCCLUSION_GAIN;
+        }
+        return gain;
+    }
+
+    // Advances a voice by one block without mixing it
+    private void skipVoice(int voice)
+    {
+        voicePosition[voice] += voiceStep[voice] * BLOCK_FRAMES;
+        if (voicePosition[voice] >= voiceFrames[voice] - 1)
+        {
+            freeVoice(voice);
+        }
+    }
+
+    private void freeVoice(int voice)
+    {
+        voiceClip[voice] = null;
+        voiceData[voice] = null;
+        voiceEmitter[voice] = null;
+    }
+
+    // Resamples one voice with linear interpolation and adds it to the mix
+    private void mixVoice(int voice)
+    {
+        int[] mix = mixBuffer;
+        byte[] data = voiceData[voice];
+        int channels = voiceChannels[voice];
+        int lastFrame = voiceFrames[voice] - 1;
+        double position = voicePosition[voice];
+        double step = voiceStep[voice];
+        float gainL = voiceGainL[voice];
+        float gainR = voiceGainR[voice];
+
+        for (int f = 0; f < BLOCK_FRAMES; f++)
+        {
+            int frame = (int)position;
+            if (frame >= lastFrame)
+            {
+                // Voice finished, free it
+                freeVoice(voice);
+                return;
+            }
+            float fraction = (float)(position - frame);
+
+            int offset = frame * channels * 2;
+            int next = offset + channels * 2;
+            float left = sample(data, offset);
+            left += (sample(data, next) - left) * fraction;
+            float right = left;
+            if (channels == 2)
+            {
+                right = sample(data, offset + 2);
+                right += (sample(data, next + 2) - right) * fraction;
+            }
+
+            mix[f * 2] += (int)(left * gainL);
+            mix[f * 2 + 1] += (int)(right * gainR);
+            position += step;
+        }
+        voicePosition[voice] = position;
+    }
+
+    // Reads a signed 16-bit little endian sample
+    private static float sample(byte[] data, int offset)
+    {
+        return (short)((data[offset + 1] << 8) | (data[offset] & 0xff));
+    }
+}
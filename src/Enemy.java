@@ -10,22 +10,22 @@ public class Enemy extends Entity
     private int mapS;
 
     // Sprite varibles
+    public static final String RANGED = "ranged";
     private String enemyType;
     private static Image spriteSheet;
     private static Image hitSheet;
-    private static Image distanceSheet;
     private static Image[][] animations;         // [state][frame]
     private static Image[][] hitAnimations;      // [state][frame]
-    private static Image[][] distanceAnimations; // [state][frame]
 
     private static int frameWidth, frameHeight;
     private static int[] framesPerState = {5, 1, 6, 3, 5}; // IDLE=5, ALERTED=1, CHASING=6, ATTACKING=3, DEAD=5 frames
     private double frameTimer = 0;
     private static double frameDuration = 0.2;
     private int currentFrame = 0;
-    private static Map<Image, Image[]> spriteSlices = new HashMap<>();
-    private static Map<Image, Image[]> distanceSlices = new HashMap<>();
-    private static double maxDistance = 400;
+    private static Map<Image, Image[]> mipChains = new HashMap<>();
+    private static final int MIP_LEVELS = 4; // 72 down to 9 pixels
+    private static final double PROJECTION = 500; // sprites are mapS * PROJECTION / distance pixels high
+    private static long columnDraws = 0;
 
     // Speed - AI
     private double speed = 50;
@@ -44,12 +44,22 @@ public class Enemy extends Entity
     private double deathTimer;
     private static double hangAroundTime = 5;
     private int damage;
+
+    // Ranged attack, bolts are slow enough to dodge
+    private static double shootCooldown = 2.5;
+    private static double boltSpeed = 110;
     // Health
     private static int maxHealth = 100;
     private int currentHealth = maxHealth;
     private boolean hit = false;
     private double hitTimer = 0;
     private static Composite orig;
+    private static final Composite HIT_COMPOSITE = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.5f);
+    private static ParticleSystem particles;
+    private static LightMap lightMap;
+
+    // Profiler phase
+    private static final int PHASE_RENDER = FrameProfiler.register("enemy render");
 
     public Enemy(double x, double y, String enemyType, GameMap map, int mapS, int damage)
     {
@@ -63,71 +73,90 @@ public class Enemy extends Entity
         {
             Enemy.spriteSheet = GameEngine.loadImage("assets/visual/StormZombieSpritesheet.png");
             Enemy.hitSheet = GameEngine.loadImage("assets/visual/StormZombieSpritesheetRedTint.png");
-            Enemy.distanceSheet = GameEngine.loadImage("assets/visual/StormZombieSpritesheetShadow.png");
-        }
-        frameWidth = 432 / 6;   // 683 / 6 columns (approximate)
-        frameHeight = 576 / 8;  // Updated: 9 rows instead of 8
-        animations = new Image[5][]; // IDLE, ALERTED, CHASING, ATTACKING, DEAD
-        hitAnimations = new Image[4][];
-        distanceAnimations = new Image[5][];
-
-        // IDLE row 7 has 5 columns (directions)
-        hitAnimations[0] = new Image[5];
-        distanceAnimations[0] = new Image[5];
-        animations[0] = new Image[5];
-        for (int col = 0; col < 5; col++)
-        {
-            animations[0][col] =
-                GameEngine.subImage(spriteSheet, col * frameWidth, 6 * frameHeight, frameWidth, frameHeight);
-            hitAnimations[0][col] =
-                GameEngine.subImage(hitSheet, col * frameWidth, 6 * frameHeight, frameWidth, frameHeight);
-            distanceAnimations[0][col] =
-                GameEngine.subImage(distanceSheet, col * frameWidth, 6 * frameHeight, frameWidth, frameHeight);
-        }
 
-        // ALERTED uses a single static frame (row 0 col 0)
-        animations[1] = new Image[] {GameEngine.subImage(spriteSheet, 0, 0, frameWidth, frameHeight)};
-        hitAnimations[1] = new Image[] {GameEngine.subImage(hitSheet, 0, 0, frameWidth, frameHeight)};
-        distanceAnimations[1] = new Image[] {GameEngine.subImage(distanceSheet, 0, 0, frameWidth, frameHeight)};
+            frameWidth = 432 / 6;   // 683 / 6 columns (approximate)
+            frameHeight = 576 / 8;  // Updated: 9 rows instead of 8
+            animations = new Image[5][]; // IDLE, ALERTED, CHASING, ATTACKING, DEAD
+            hitAnimations = new Image[4][];
 
-        // CHASING: 8 directions (rows 0-7), each with 6 frames (columns)
-        animations[2] = new Image[8 * 6];
-        hitAnimations[2] = new Image[8 * 6];
-        distanceAnimations[2] = new Image[8 * 6];
+            // IDLE row 7 has 5 columns (directions)
+            hitAnimations[0] = new Image[5];
+            animations[0] = new Image[5];
+            for (int col = 0; col < 5; col++)
+            {
+                animations[0][col] =
+                    GameEngine.subImage(spriteSheet, col * frameWidth, 6 * frameHeight, frameWidth, frameHeight);
+                hitAnimations[0][col] =
+                    GameEngine.subImage(hitSheet, col * frameWidth, 6 * frameHeight, frameWidth, frameHeight);
+            }
 
-        for (int dir = 0; dir < 8; dir++)
-        {
-            for (int frame = 0; frame < 6; frame++)
+            // ALERTED uses a single static frame (row 0 col 0)
+            animations[1] = new Image[] {GameEngine.subImage(spriteSheet, 0, 0, frameWidth, frameHeight)};
+            hitAnimations[1] = new Image[] {GameEngine.subImage(hitSheet, 0, 0, frameWidth, frameHeight)};
+
+            // CHASING: 8 directions (rows 0-7), each with 6 frames (columns)
+            animations[2] = new Image[8 * 6];
+            hitAnimations[2] = new Image[8 * 6];
+
+            for (int dir = 0; dir < 8; dir++)
             {
-                int index = dir * 6 + frame;
-                animations[2][index] =
-                    GameEngine.subImage(spriteSheet, frame * frameWidth, dir * frameHeight, frameWidth, frameHeight);
-                hitAnimations[2][index] =
-                    GameEngine.subImage(hitSheet, frame * frameWidth, dir * frameHeight, frameWidth, frameHeight);
-                distanceAnimations[2][index] =
-                    GameEngine.subImage(distanceSheet, frame * frameWidth, dir * frameHeight, frameWidth, frameHeight);
+                for (int frame = 0; frame < 6; frame++)
+                {
+                    int index = dir * 6 + frame;
+                    animations[2][index] = GameEngine.subImage(spriteSheet, frame * frameWidth, dir * frameHeight,
+                                                               frameWidth, frameHeight);
+                    hitAnimations[2][index] =
+                        GameEngine.subImage(hitSheet, frame * frameWidth, dir * frameHeight, frameWidth, frameHeight);
+                }
+            }
+            animations[3] = new Image[3];
+            hitAnimations[3] = new Image[3];
+            for (int att = 0; att < 3; att++)
+            {
+                animations[3][att] =
+                    GameEngine.subImage(spriteSheet, att * frameWidth, 7 * frameHeight, frameWidth, frameHeight);
+                hitAnimations[3][att] =
+                    GameEngine.subImage(hitSheet, att * frameWidth, 7 * frameHeight, frameWidth, frameHeight);
+            }
+            animations[4] = new Image[5];
+            for (int dead = 0; dead < 5; dead++)
+            {
+                animations[4][dead] =
+                    GameEngine.subImage(spriteSheet, dead * frameWidth, 5 * frameHeight, frameWidth, frameHeight);
             }
+
+            // Mip chains for every frame, the renderer picks one by sprite size.
+            // Hit frames are drawn unshaded, the others are shaded up front.
+            buildMipChains(animations);
+            buildMipChains(hitAnimations);
+            prebuildShades(animations, mapS * PROJECTION);
         }
-        animations[3] = new Image[3];
-        hitAnimations[3] = new Image[3];
-        distanceAnimations[3] = new Image[3];
-        for (int att = 0; att < 3; att++)
+    }
+
+    private static void buildMipChains(Image[][] frames)
+    {
+        for (Image[] state : frames)
         {
-            animations[3][att] =
-                GameEngine.subImage(spriteSheet, att * frameWidth, 7 * frameHeight, frameWidth, frameHeight);
-            hitAnimations[3][att] =
-                GameEngine.subImage(hitSheet, att * frameWidth, 7 * frameHeight, frameWidth, frameHeight);
-            distanceAnimations[3][att] =
-                GameEngine.subImage(distanceSheet, att * frameWidth, 7 * frameHeight, frameWidth, frameHeight);
+            for (Image frame : state)
+            {
+                mipChains.put(frame, MipMap.buildChain(frame, MIP_LEVELS));
+            }
         }
-        animations[4] = new Image[5];
-        distanceAnimations[4] = new Image[5];
-        for (int dead = 0; dead < 5; dead++)
+    }
+
+    // Shades each mip level of every frame to the levels it can be drawn at
+    private static void prebuildShades(Image[][] frames, double scale)
+    {
+        for (Image[] state : frames)
         {
-            animations[4][dead] =
-                GameEngine.subImage(spriteSheet, dead * frameWidth, 5 * frameHeight, frameWidth, frameHeight);
-            distanceAnimations[4][dead] =
-                GameEngine.subImage(distanceSheet, dead * frameWidth, 5 * frameHeight, frameWidth, frameHeight);
+            for (Image frame : state)
+            {
+                Image[] chain = mipChains.get(frame);
+                for (int mip = 0; mip < MIP_LEVELS; mip++)
+                {
+                    ShadeTable.prebuild(chain[mip], MipMap.nearestDistance(frameHeight, scale, mip));
+                }
+            }
         }
     }
 
@@ -161,6 +190,13 @@ public class Enemy extends Entity
             deathTimer += dt;
         }
 
+        // Growl when first noticing the player
+        if (oldState == EnemyAI.AIState.IDLE && newState == EnemyAI.AIState.ALERTED)
+        {
+            Main main = (Main)engine;
+            GameEngine.playAudio(main.getSoundZombieNeutral(), getAudioEmitter());
+        }
+
         // Detect flick from CHASING to ALERTED: trigger walkback
         if (oldState == EnemyAI.AIState.CHASING && newState == EnemyAI.AIState.ALERTED)
         {
@@ -169,7 +205,7 @@ public class Enemy extends Entity
 
             // Choose left or right randomly relative to player
             double angleToPlayer = Math.atan2(player.getY() - y, player.getX() - x);
-            walkBackDirection = (Math.random() < 0.5) ? -1 : 1;
+            walkBackDirection = (engine.rand(1.0) < 0.5) ? -1 : 1;
             angle = angleToPlayer + walkBackDirection * (Math.PI / 2); // 90 degrees left or right
         }
 
@@ -218,6 +254,26 @@ public class Enemy extends Entity
         {
             currentFrame = 0;
         }
+        // Stormtroopers shoot while they can see the player
+        if (isRanged() && newState == EnemyAI.AIState.CHASING && cooldownTimer <= 0)
+        {
+            Main main = (Main)engine;
+            double angleToPlayer = Math.atan2(player.getY() - y, player.getX() - x);
+            if (main.getProjectiles().spawn(x, y, angleToPlayer, boltSpeed, damage))
+            {
+                GameEngine.playAudio(main.getSoundEnemyShot(), getAudioEmitter());
+                if (particles != null)
+                {
+                    particles.emit(x, y, mapS / 2.0, 10, angleToPlayer, 0.8, 40, ParticleSystem.FLASH, 0.15);
+                }
+                if (lightMap != null)
+                {
+                    lightMap.addLight(x, y, 0.6, 3, 0.1);
+                }
+            }
+            cooldownTimer = shootCooldown;
+        }
+
         // Apply melee damage
         if (newState == EnemyAI.AIState.ATTACKING)
         {
@@ -230,9 +286,9 @@ public class Enemy extends Entity
             {
                 player.takeDamage(damage); // will change with difficulty level now
                 currentFrame = 1;
-                // Play the injured sound
+                // Play the injured sound from the attacker's side
                 Main main = (Main)engine;
-                engine.playAudio(main.getSoundPlayerInjured());
+                GameEngine.playAudio(main.getSoundPlayerInjured(), getAudioEmitter());
 
                 cooldownTimer = attackCooldown; // reset cooldown
             }
@@ -247,12 +303,24 @@ public class Enemy extends Entity
         }
     }
 
+    public boolean isRanged()
+    {
+        return RANGED.equals(enemyType);
+    }
+
     public EnemyAI.AIState getAIState()
     {
         return ai.getState();
     }
 
-    public void render(GameEngine g, Player player, double[] rayDistances)
+    public void render(GameEngine g, Player player, double[] rayDistances, int numRays)
+    {
+        g.profileBegin(PHASE_RENDER);
+        renderSprite(g, player, rayDistances, numRays);
+        g.profileEnd(PHASE_RENDER);
+    }
+
+    private void renderSprite(GameEngine g, Player player, double[] rayDistances, int numRays)
     {
         double dx = x - player.getX();
         double dy = y - player.getY();
@@ -264,7 +332,6 @@ public class Enemy extends Entity
         if (Math.abs(relativeAngle) > halfFOV)
             return;
 
-        int numRays = rayDistances.length;
         int screenWidth = g.width();
         int screenHeight = g.height();
         double stripWidth = (double)screenWidth / numRays;
@@ -273,7 +340,7 @@ public class Enemy extends Entity
 
         // Sprite scaling and vertical offset
         double scaleFactor = 1;
-        double scale = ((mapS * 500) / distance) * scaleFactor;
+        double scale = ((mapS * PROJECTION) / distance) * scaleFactor;
         double spriteHeight = scale;
         double spriteWidth = scale;
         int verticalSpriteOffset = 7; // tweak to move sprite down
@@ -286,7 +353,6 @@ public class Enemy extends Entity
         int stateIndex = getAIState().ordinal();
         Image fullFrame;
         Image hitFrame = null;
-        Image distFrame = null;
         boolean flipHorizontal = false;
 
         int dir8;
@@ -309,7 +375,6 @@ public class Enemy extends Entity
 
             int col = currentFrame % 6;
             fullFrame = animations[2][drawDir * 6 + col];
-            distFrame = distanceAnimations[2][drawDir * 6 + col];
             hitFrame = hitAnimations[2][drawDir * 6 + col];
         }
         else if (stateIndex == EnemyAI.AIState.ATTACKING.ordinal())
@@ -317,20 +382,17 @@ public class Enemy extends Entity
             if (attackCooldown - cooldownTimer < frameDuration * 2)
             {
                 fullFrame = animations[3][currentFrame];
-                distFrame = distanceAnimations[3][currentFrame];
                 hitFrame = hitAnimations[3][currentFrame];
             }
             else
             {
                 fullFrame = animations[3][0];
-                distFrame = distanceAnimations[3][0];
                 hitFrame = hitAnimations[3][0];
             }
         }
         else if (stateIndex == EnemyAI.AIState.DEAD.ordinal())
         {
             fullFrame = animations[4][currentFrame];
-            distFrame = distanceAnimations[4][currentFrame];
         }
         else if (isWalkingBack)
         {
@@ -366,62 +428,30 @@ public class Enemy extends Entity
                 mappedDir = 4;
 
             fullFrame = animations[0][mappedDir];
-            distFrame = distanceAnimations[0][mappedDir];
             hitFrame = hitAnimations[0][mappedDir];
         }
         else
         {
             fullFrame = animations[1][0];
-            distFrame = distanceAnimations[1][0];
             hitFrame = hitAnimations[1][0];
         }
 
-        int frameW = fullFrame.getWidth(null);
-        int frameH = fullFrame.getHeight(null);
-        Image[] slices = spriteSlices.get(fullFrame);
-        Image[] distSlices = distanceSlices.get(distFrame);
-        Image[] hitSlices = null;
-        Map<Image, Image[]> hitSpriteSlices = new HashMap<Image, Image[]>();
-        if (hit && hitFrame != null)
-        {
-            hitSlices = spriteSlices.get(hitFrame);
-        }
-        if (slices == null)
-        {
-            slices = new Image[frameW];
-            for (int i = 0; i < frameW; i++)
-            {
-                slices[i] = GameEngine.subImage(fullFrame, i, 0, 1, frameH);
-                if (hit && hitSlices != null)
-                {
-                    hitSlices[i] = GameEngine.subImage(hitFrame, i, 0, 1, frameH);
-                }
-            }
-            spriteSlices.put(fullFrame, slices);
-            if (hit && hitSlices != null)
-            {
-                hitSpriteSlices.put(hitFrame, hitSlices);
-            }
-        }
-        if (distSlices == null)
-        {
-            distSlices = new Image[frameW];
-            for (int i = 0; i < frameW; i++)
-            {
-                distSlices[i] = GameEngine.subImage(distFrame, i, 0, 1, frameH);
-            }
-            distanceSlices.put(distFrame, distSlices);
-        }
-        if (hitSlices == null && hit && hitFrame != null)
+        // Use the smallest mip level that still covers the sprite on screen
+        int mip = MipMap.selectLevel(frameHeight, spriteHeight, MIP_LEVELS);
+        fullFrame = mipChains.get(fullFrame)[mip];
+        if (hitFrame != null)
         {
-            hitSlices = new Image[frameW];
-            for (int i = 0; i < frameW; i++)
-            {
-                hitSlices[i] = GameEngine.subImage(hitFrame, i, 0, 1, frameH);
-            }
-            hitSpriteSlices.put(hitFrame, hitSlices);
+            hitFrame = mipChains.get(hitFrame)[mip];
         }
-        float brightness = (float)Math.min(0.9, distance / maxDistance);
+
+        // Darken with distance and with the light where the enemy stands
+        float light = lightMap != null ? lightMap.sample(x, y) : 1;
+        Image shadedFrame = ShadeTable.get(fullFrame, ShadeTable.level(distance, light));
+
+        // Each screen column draws one texel column of the frame
+        int frameW = fullFrame.getWidth(null);
+        int frameH = fullFrame.getHeight(null);
+        boolean drawHit = hit && hitFrame != null && ai.getState() != EnemyAI.AIState.DEAD;
         for (int i = 0; i < (int)spriteWidth; i++)
         {
             int rayIndex = (int)((screenX + i) / stripWidth);
@@ -430,36 +460,19 @@ public class Enemy extends Entity
 
             if (distance < rayDistances[rayIndex])
             {
-                int pixelX = (int)((double)i / spriteWidth * slices.length);
-                if (pixelX < 0 || pixelX >= slices.length)
+                int pixelX = (int)((double)i / spriteWidth * frameW);
+                if (pixelX < 0 || pixelX >= frameW)
                     continue;
 
-                if (flipHorizontal)
+                int column = flipHorizontal ? frameW - 1 - pixelX : pixelX;
+                g.drawImage(shadedFrame, screenX + i, screenY, 1, (int)spriteHeight, column, 0, column + 1, frameH);
+                columnDraws++;
+                if (drawHit)
                 {
-                    int flippedX = slices.length - 1 - pixelX;
-                    g.drawImage(slices[flippedX], screenX + i, screenY, 1, (int)spriteHeight);
-                    if (hit && hitSlices != null && ai.getState() != EnemyAI.AIState.DEAD)
-                    {
-                        g.mGraphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.5f));
-                        g.drawImage(hitSlices[flippedX], screenX + i, screenY, 1, (int)spriteHeight);
-                        g.mGraphics.setComposite(orig);
-                    }
-                    g.mGraphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, brightness));
-                    g.drawImage(distSlices[flippedX], screenX + i, screenY, 1, (int)spriteHeight);
-                    g.mGraphics.setComposite(orig);
-                }
-                else
-                {
-                    g.drawImage(slices[pixelX], screenX + i, screenY, 1, (int)spriteHeight);
-                    if (hit && hitSlices != null && ai.getState() != EnemyAI.AIState.DEAD)
-                    {
-                        g.mGraphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.5f));
-                        g.drawImage(hitSlices[pixelX], screenX + i, screenY, 1, (int)spriteHeight);
-                        g.mGraphics.setComposite(orig);
-                    }
-                    g.mGraphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, brightness));
-                    g.drawImage(distSlices[pixelX], screenX + i, screenY, 1, (int)spriteHeight);
+                    g.mGraphics.setComposite(HIT_COMPOSITE);
+                    g.drawImage(hitFrame, screenX + i, screenY, 1, (int)spriteHeight, column, 0, column + 1, frameH);
                     g.mGraphics.setComposite(orig);
+                    columnDraws++;
                 }
             }
         }
@@ -558,10 +571,9 @@ public class Enemy extends Entity
         double distance = Math.sqrt(dx * dx + dy * dy);
         if (distance > 5)
             return;
-        final int MINI_MAP_SIZE = 128;
-        int miniTileSize = MINI_MAP_SIZE / map.getWidth();
+        int miniTileSize = Hud.MINI_MAP_SIZE / map.getWidth();
 
-        int offsetX = g.width() - MINI_MAP_SIZE - 10;
+        int offsetX = g.width() - Hud.MINI_MAP_SIZE - 10;
         int offsetY = 10;
 
         double miniX = (x / mapS) * miniTileSize + offsetX;
@@ -577,9 +589,32 @@ public class Enemy extends Entity
         g.drawLine(miniX, miniY, endX, endY);
     }
 
+    // Shared by all enemies, blood sprays when they take damage
+    public static void setParticles(ParticleSystem particleSystem)
+    {
+        particles = particleSystem;
+    }
+
+    // Enemies are shaded by the light of the tile they stand on
+    public static void setLightMap(LightMap map)
+    {
+        lightMap = map;
+    }
+
+    // Scaled column draws made by every enemy so far, hit overlays included
+    public static long getColumnDraws()
+    {
+        return columnDraws;
+    }
+
     // Health and Damage logic
     public void takeDamage(int amt)
     {
+        if (particles != null && amt > 0)
+        {
+            particles.emit(x, y, mapS * 0.45, 8 + amt / 2, angle + Math.PI, Math.PI * 2, 40, ParticleSystem.BLOOD,
+                           0.8);
+        }
         hit = true;
         hitTimer = 0;
         currentHealth -= amt;
@@ -18,6 +18,7 @@ public class EnemyAI
     private double maxChaseDistance = 110; // Gives up if player flees too far
     private double retreatDistance = 20;   // player closer than this triggers retreat
     private double retreatSpeed = 70;      // pixels per second for retreating
+    private double shootDistance = 300;    // Ranged enemies give up beyond this
 
     private static double targetX, targetY;
 
@@ -32,6 +33,7 @@ public class EnemyAI
         double dx = player.getX() - enemy.getX();
         double dy = player.getY() - enemy.getY();
         double dist = Math.sqrt(dx * dx + dy * dy);
+        AIState previousState = state;
 
         switch (state)
         {
@@ -69,6 +71,17 @@ public class EnemyAI
                 break;
             }
 
+            // Ranged enemies hold their position and shoot
+            if (enemy.isRanged())
+            {
+                enemy.smoothFacePlayer(player, Math.PI * 2, dt);
+                if (dist > shootDistance)
+                {
+                    state = AIState.IDLE;
+                }
+                break;
+            }
+
             if (dist < retreatDistance)
             {
                 state = AIState.RETREATING;
@@ -160,6 +173,19 @@ public class EnemyAI
         {
             state = AIState.DEAD;
         }
+
+        // Record the transition for the flight recorder
+        if (state != previousState)
+        {
+            GameEvents.AIStateChangeEvent event = new GameEvents.AIStateChangeEvent();
+            if (event.shouldCommit())
+            {
+                event.from = previousState.name();
+                event.to = state.name();
+                event.distance = dist;
+                event.commit();
+            }
+        }
     }
 
     public boolean canSeePlayer(double ex, double ey, double px, double py)
@@ -1,6 +1,7 @@
 public class Entity
 {
     protected double x, y;
+    private AudioEmitter emitter;
 
     public Entity(double x, double y)
     {
@@ -8,6 +9,16 @@ public class Entity
         this.y = y;
     }
 
+    // Sounds played from this emitter follow the entity
+    public AudioEmitter getAudioEmitter()
+    {
+        if (emitter == null)
+        {
+            emitter = new AudioEmitter(this);
+        }
+        return emitter;
+    }
+
     // Default update: no player context
     public void update(GameEngine engine, double dt)
     {
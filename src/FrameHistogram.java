@@ -0,0 +1,112 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// Counts durations in log-spaced buckets: every power of two microseconds
+// is split into SUB_BUCKETS equal steps, so a bucket is at most 1/16 of
+// its value wide from 16 us up to about four minutes. Recording is an array
+// increment, and merged histograms give percentiles without keeping the
+// samples.
+public class FrameHistogram
+{
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 27; // longer durations count in the last bucket
+    public static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) << SUB_BITS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total = 0;
+
+    // Adds one duration in nanoseconds
+    public void record(long nanos)
+    {
+        counts[bucket(nanos)]++;
+        total++;
+    }
+
+    public void add(FrameHistogram other)
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    public long getCount()
+    {
+        return total;
+    }
+
+    // Duration in nanoseconds that the fraction q (0 to 1) of the recorded
+    // durations do not exceed, rounded up to the end of its bucket
+    public long percentile(double q)
+    {
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long)Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+                return upperBound(i) * 1000;
+        }
+        return upperBound(BUCKETS - 1) * 1000;
+    }
+
+    static int bucket(long nanos)
+    {
+        long micros = Math.max(0, Math.min(nanos / 1000, (2L << MAX_EXPONENT) - 1));
+        if (micros < SUB_BUCKETS)
+            return (int)micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS) + (int)((micros >> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    // First microsecond value above the bucket
+    static long upperBound(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+            return bucket + 1;
+        int shift = (bucket >> SUB_BITS) - 1;
+        long lower = (long)(SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+        return lower + (1L << shift);
+    }
+
+    // Writes the non-empty buckets as (short bucket, int count) pairs
+    public void write(DataOutputStream out) throws IOException
+    {
+        int used = 0;
+        for (long count : counts)
+        {
+            if (count > 0)
+                used++;
+        }
+        out.writeShort(used);
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            if (counts[i] > 0)
+            {
+                out.writeShort(i);
+                out.writeInt((int)Math.min(counts[i], Integer.MAX_VALUE));
+            }
+        }
+    }
+
+    public static FrameHistogram read(DataInputStream in) throws IOException
+    {
+        FrameHistogram histogram = new FrameHistogram();
+        int used = in.readUnsignedShort();
+        for (int i = 0; i < used; i++)
+        {
+            int bucket = in.readUnsignedShort();
+            int count = in.readInt();
+            if (bucket >= BUCKETS || count < 0)
+                throw new IOException("bad histogram bucket " + bucket);
+            histogram.counts[bucket] += count;
+            histogram.total += count;
+        }
+        return histogram;
+    }
+}
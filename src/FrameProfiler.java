@@ -0,0 +1,229 @@
+import java.awt.*;
+import java.util.Arrays;
+
+// Records nanosecond timings for named phases of each frame and keeps a
+// rolling history so averages, p99 values and a frame-time graph can be
+// drawn over the game. When disabled, begin and end return straight away.
+public class FrameProfiler
+{
+    //-------------------------------------------------------
+    // Phase registry (shared by every profiler)
+    //-------------------------------------------------------
+    public static final int MAX_PHASES = 16;
+    private static final String[] phaseNames = new String[MAX_PHASES];
+    private static int phaseCount = 0;
+
+    // Registers a named phase and returns its id
+    public static synchronized int register(String name)
+    {
+        for (int i = 0; i < phaseCount; i++)
+        {
+            if (phaseNames[i].equals(name))
+                return i;
+        }
+        if (phaseCount == MAX_PHASES)
+            throw new IllegalStateException("Too many profiler phases");
+        phaseNames[phaseCount] = name;
+        return phaseCount++;
+    }
+
+    public static int getPhaseCount()
+    {
+        return phaseCount;
+    }
+
+    public static String getPhaseName(int phase)
+    {
+        return phaseNames[phase];
+    }
+
+    //-------------------------------------------------------
+    // Timing data
+    //-------------------------------------------------------
+    public static final int HISTORY = 240; // four seconds at 60 fps
+
+    private volatile boolean enabled = false;
+    private final long[] phaseStart = new long[MAX_PHASES];
+    private final long[] phaseTotal = new long[MAX_PHASES];
+    private final long[][] phaseHistory = new long[MAX_PHASES][HISTORY];
+    private final long[] frameHistory = new long[HISTORY];
+    private final long[] sortScratch = new long[HISTORY];
+    private long lastFrameEnd = 0;
+    private int historyIndex = 0;
+    private int historyCount = 0;
+
+    // Overlay
+    private final Font overlayFont = new Font("Monospaced", Font.PLAIN, 12);
+    private final Color overlayBackground = new Color(0, 0, 0, 170);
+    private final Color graphBudget = new Color(255, 255, 0, 120);
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled)
+    {
+        if (enabled && !this.enabled)
+        {
+            reset();
+        }
+        this.enabled = enabled;
+    }
+
+    public void toggle()
+    {
+        setEnabled(!enabled);
+    }
+
+    public void reset()
+    {
+        Arrays.fill(phaseTotal, 0);
+        for (long[] history : phaseHistory)
+        {
+            Arrays.fill(history, 0);
+        }
+        Arrays.fill(frameHistory, 0);
+        lastFrameEnd = 0;
+        historyIndex = 0;
+        historyCount = 0;
+    }
+
+    // Marks the start of a phase
+    public void begin(int phase)
+    {
+        if (!enabled)
+            return;
+        phaseStart[phase] = System.nanoTime();
+    }
+
+    // Marks the end of a phase; a phase run several times a frame is summed
+    public void end(int phase)
+    {
+        if (!enabled)
+            return;
+        phaseTotal[phase] += System.nanoTime() - phaseStart[phase];
+    }
+
+    // Adds a duration measured elsewhere to a phase
+    public void add(int phase, long nanos)
+    {
+        if (!enabled)
+            return;
+        phaseTotal[phase] += nanos;
+    }
+
+    // Moves this frame's totals into the history
+    public void endFrame()
+    {
+        if (!enabled)
+            return;
+
+        long now = System.nanoTime();
+        frameHistory[historyIndex] = lastFrameEnd == 0 ? 0 : now - lastFrameEnd;
+        lastFrameEnd = now;
+
+        for (int i = 0; i < phaseCount; i++)
+        {
+            phaseHistory[i][historyIndex] = phaseTotal[i];
+            phaseTotal[i] = 0;
+        }
+
+        historyIndex = (historyIndex + 1) % HISTORY;
+        if (historyCount < HISTORY)
+            historyCount++;
+    }
+
+    // Rolling average of a phase in nanoseconds
+    public double getAverage(int phase)
+    {
+        return average(phaseHistory[phase]);
+    }
+
+    // Rolling 99th percentile of a phase in nanoseconds
+    public long getPercentile99(int phase)
+    {
+        return percentile(phaseHistory[phase], 0.99);
+    }
+
+    // Rolling average time between frames in nanoseconds
+    public double getAverageFrameTime()
+    {
+        return average(frameHistory);
+    }
+
+    public long getFrameTimePercentile99()
+    {
+        return percentile(frameHistory, 0.99);
+    }
+
+    private double average(long[] history)
+    {
+        if (historyCount == 0)
+            return 0;
+        long sum = 0;
+        for (int i = 0; i < historyCount; i++)
+        {
+            sum += history[i];
+        }
+        return (double)sum / historyCount;
+    }
+
+    private long percentile(long[] history, double fraction)
+    {
+        if (historyCount == 0)
+            return 0;
+        System.arraycopy(history, 0, sortScratch, 0, historyCount);
+        Arrays.sort(sortScratch, 0, historyCount);
+        int index = (int)Math.ceil(fraction * historyCount) - 1;
+        return sortScratch[Math.max(0, index)];
+    }
+
+    // Draws the timings table and a frame-time graph at the top left
+    public void draw(Graphics2D g)
+    {
+        if (!enabled)
+            return;
+
+        int rows = phaseCount + 1;
+        int lineHeight = 14;
+        int width = HISTORY + 20;
+        int tableHeight = rows * lineHeight + 24;
+        int graphHeight = 60;
+
+        g.setColor(overlayBackground);
+        g.fillRect(5, 5, width, tableHeight + graphHeight + 10);
+
+        g.setFont(overlayFont);
+        g.setColor(Color.WHITE);
+        int y = 20;
+        g.drawString(String.format("%-12s %8s %8s", "phase", "avg ms", "p99 ms"), 10, y);
+        y += lineHeight;
+        g.drawString(String.format("%-12s %8.2f %8.2f", "frame", getAverageFrameTime() / 1e6,
+                                   getFrameTimePercentile99() / 1e6),
+                     10, y);
+        for (int i = 0; i < phaseCount; i++)
+        {
+            y += lineHeight;
+            g.drawString(String.format("%-12s %8.2f %8.2f", phaseNames[i], getAverage(i) / 1e6,
+                                       getPercentile99(i) / 1e6),
+                         10, y);
+        }
+
+        // Frame-time graph, one column per frame, 33ms full scale
+        int graphTop = tableHeight + 10;
+        int graphBottom = graphTop + graphHeight;
+        double scale = graphHeight / 33.3e6;
+        g.setColor(graphBudget);
+        int budgetY = graphBottom - (int)(16.7e6 * scale);
+        g.drawLine(15, budgetY, 15 + HISTORY, budgetY);
+        g.setColor(Color.GREEN);
+        for (int i = 0; i < historyCount; i++)
+        {
+            // Oldest frame on the left
+            int index = (historyIndex - historyCount + i + HISTORY) % HISTORY;
+            int height = (int)Math.min(graphHeight, frameHistory[index] * scale);
+            g.drawLine(15 + i, graphBottom, 15 + i, graphBottom - height);
+        }
+    }
+}
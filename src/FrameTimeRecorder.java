@@ -0,0 +1,188 @@
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Collects the update, render and present time of every frame into
+// FrameHistogram segments, one per game state and level. flush() hands the
+// segments collected so far to a writer thread, which appends them to the
+// session's file, so the game thread never waits on the disk. The last
+// segments are flushed when the program exits. FrameTimeReport merges and
+// summarises the files.
+//
+// Layout: int MAGIC, short VERSION, long session start in milliseconds,
+// then one block per flush: short segment count, and for each segment its
+// state (UTF), int level and the METRICS histograms.
+public final class FrameTimeRecorder
+{
+    public static final int MAGIC = 0x414C4654; // "ALFT"
+    public static final short VERSION = 1;
+
+    public static final int UPDATE = 0;
+    public static final int RENDER = 1;
+    public static final int PRESENT = 2;
+    public static final int METRICS = 3;
+    public static final String[] METRIC_NAMES = {"update", "render", "present"};
+
+    // Frame times of one game state on one level
+    public static class Segment
+    {
+        public final String state;
+        public final int level;
+        public final FrameHistogram[] times = new FrameHistogram[METRICS];
+
+        public Segment(String state, int level)
+        {
+            this.state = state;
+            this.level = level;
+            for (int i = 0; i < METRICS; i++)
+            {
+                times[i] = new FrameHistogram();
+            }
+        }
+    }
+
+    // Hands the writer an empty batch to make it stop
+    private static final List<Segment> END = new ArrayList<>();
+
+    private final File file;
+    private final long sessionStart = System.currentTimeMillis();
+    private List<Segment> segments = new ArrayList<>();
+    private Segment current = null;
+    private final BlockingQueue<List<Segment>> batches = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private DataOutputStream out = null;
+
+    // Starts a session file in directory, named after the time it started
+    public FrameTimeRecorder(File directory)
+    {
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(sessionStart));
+        file = new File(directory, "frametimes-" + name + ".fth");
+
+        writer = new Thread(this::writeBatches, "FrameTimeWriter");
+        writer.setDaemon(true);
+        writer.start();
+
+        // Keep the last level's frames when the window is closed
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "FrameTimeRecorder"));
+    }
+
+    // Adds one frame. A negative time was not measured and is left out.
+    public synchronized void record(String state, int level, long update, long render, long present)
+    {
+        if (current == null || current.level != level || !current.state.equals(state))
+        {
+            current = segment(state, level);
+        }
+        current.times[UPDATE].record(update);
+        current.times[RENDER].record(render);
+        if (present >= 0)
+        {
+            current.times[PRESENT].record(present);
+        }
+    }
+
+    private Segment segment(String state, int level)
+    {
+        for (Segment segment : segments)
+        {
+            if (segment.level == level && segment.state.equals(state))
+                return segment;
+        }
+        Segment segment = new Segment(state, level);
+        segments.add(segment);
+        return segment;
+    }
+
+    // Queues the frames recorded since the last flush for writing
+    public synchronized void flush()
+    {
+        if (segments.isEmpty())
+            return;
+        batches.add(segments);
+        segments = new ArrayList<>();
+        current = null;
+    }
+
+    // Flushes and waits for the writer to finish
+    public void close()
+    {
+        flush();
+        batches.add(END);
+        try
+        {
+            writer.join(2000);
+        }
+        catch (InterruptedException e)
+        {
+            // Exiting anyway
+        }
+    }
+
+    private void writeBatches()
+    {
+        try
+        {
+            while (true)
+            {
+                List<Segment> batch = batches.take();
+                if (batch == END)
+                    break;
+                write(batch);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // Stop writing
+        }
+
+        if (out != null)
+        {
+            try
+            {
+                out.close();
+            }
+            catch (IOException e)
+            {
+                // Nothing left to save
+            }
+        }
+    }
+
+    private void write(List<Segment> batch)
+    {
+        try
+        {
+            if (out == null)
+            {
+                File directory = file.getParentFile();
+                if (directory != null)
+                {
+                    directory.mkdirs();
+                }
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeLong(sessionStart);
+            }
+            out.writeShort(batch.size());
+            for (Segment segment : batch)
+            {
+                out.writeUTF(segment.state);
+                out.writeInt(segment.level);
+                for (FrameHistogram histogram : segment.times)
+                {
+                    histogram.write(out);
+                }
+            }
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: could not write frame times to " + file);
+        }
+    }
+}
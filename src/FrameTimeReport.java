@@ -0,0 +1,125 @@
+import java.io.*;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Merges the session files written by FrameTimeRecorder and prints the
+// p50, p99 and p99.9 of each frame time per game state and level, with a
+// total line for states seen on more than one level. Times are in
+// milliseconds, rounded up to the end of their histogram bucket.
+//
+// Usage: java FrameTimeReport <file or directory>...
+public class FrameTimeReport
+{
+    private static final double[] PERCENTILES = {0.50, 0.99, 0.999};
+
+    // Level key of each state's total over all its levels
+    private static final int ALL_LEVELS = Integer.MIN_VALUE;
+
+    public static void main(String[] args)
+    {
+        if (args.length == 0)
+        {
+            System.out.println("Usage: java FrameTimeReport <file or directory>...");
+            System.exit(1);
+        }
+
+        // Segments merged across sessions, sorted by state then level
+        Map<String, Map<Integer, FrameTimeRecorder.Segment>> merged = new TreeMap<>();
+        int sessions = 0;
+        for (String arg : args)
+        {
+            File path = new File(arg);
+            File[] files = path.isDirectory() ? path.listFiles((dir, name) -> name.endsWith(".fth"))
+                                              : new File[] {path};
+            if (files == null)
+                continue;
+            for (File file : files)
+            {
+                if (read(file, merged))
+                    sessions++;
+            }
+        }
+
+        System.out.println("Sessions: " + sessions);
+        System.out.printf("%-14s %5s %9s", "state", "level", "frames");
+        for (String metric : FrameTimeRecorder.METRIC_NAMES)
+        {
+            System.out.printf("  %-23s", metric + " p50/p99/p99.9");
+        }
+        System.out.println();
+        for (Map.Entry<String, Map<Integer, FrameTimeRecorder.Segment>> state : merged.entrySet())
+        {
+            Map<Integer, FrameTimeRecorder.Segment> levels = state.getValue();
+            for (FrameTimeRecorder.Segment segment : levels.values())
+            {
+                if (segment.level != ALL_LEVELS)
+                {
+                    print(segment, Integer.toString(segment.level));
+                }
+            }
+            if (levels.size() > 2)
+            {
+                print(levels.get(ALL_LEVELS), "all");
+            }
+        }
+    }
+
+    // Adds one session file, returns false if it could not be read
+    private static boolean read(File file, Map<String, Map<Integer, FrameTimeRecorder.Segment>> merged)
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            if (in.readInt() != FrameTimeRecorder.MAGIC || in.readShort() != FrameTimeRecorder.VERSION)
+            {
+                System.out.println("Error: " + file + " is not a frame time file");
+                return false;
+            }
+            in.readLong(); // session start
+
+            // One block per flush until the end of the file
+            while (in.available() > 0)
+            {
+                int count = in.readUnsignedShort();
+                for (int i = 0; i < count; i++)
+                {
+                    String state = in.readUTF();
+                    int level = in.readInt();
+                    Map<Integer, FrameTimeRecorder.Segment> levels =
+                        merged.computeIfAbsent(state, s -> new TreeMap<>());
+                    FrameTimeRecorder.Segment segment = levels.computeIfAbsent(
+                        level, l -> new FrameTimeRecorder.Segment(state, l));
+                    FrameTimeRecorder.Segment total = levels.computeIfAbsent(
+                        ALL_LEVELS, l -> new FrameTimeRecorder.Segment(state, l));
+                    for (int metric = 0; metric < FrameTimeRecorder.METRICS; metric++)
+                    {
+                        FrameHistogram histogram = FrameHistogram.read(in);
+                        segment.times[metric].add(histogram);
+                        total.times[metric].add(histogram);
+                    }
+                }
+            }
+            return true;
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: could not read " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void print(FrameTimeRecorder.Segment segment, String level)
+    {
+        System.out.printf("%-14s %5s %9d", segment.state, level, segment.times[FrameTimeRecorder.UPDATE].getCount());
+        for (FrameHistogram histogram : segment.times)
+        {
+            if (histogram.getCount() == 0)
+            {
+                System.out.printf("  %-23s", "-");
+                continue;
+            }
+            System.out.printf("  %7.2f %7.2f %7.2f", histogram.percentile(PERCENTILES[0]) / 1e6,
+                              histogram.percentile(PERCENTILES[1]) / 1e6, histogram.percentile(PERCENTILES[2]) / 1e6);
+        }
+        System.out.println();
+    }
+}
@@ -1,54 +1,117 @@
 import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.lang.foreign.Arena;
 
 public class GameAsset
 {
 
     // declare variables for game assets
     private final int WALLPIXELSIZE = 128; // already pre determined by wall width
-    private Image imageScifiWall;
-    private Image[][] imageStripsScifiWall;
+    public static final int WALL_MIP_LEVELS = 6; // 128 down to 4 texels
+    private static final String SCIFI_WALL = "assets/visual/ScifiWall.png";
+
+    // The wall textures of the loaded level in its arena, null between levels. Walls are drawn
+    // from the heap copies ShadeTable shades from them.
+    private Arena levelArena;
+    private OffHeapTexture[] mipScifiWall;
+    private OffHeapTexture[] mipMirroredScifiWall;
     private Image lazerPistol;
     private Image lazerRifle;
     private Image lazerRiflePickup;
     private Image lazerShotgun;
     private Image lazerShotgunPickup;
+    private Image lazerPistolFlare;
+    private Image lazerRifleFlare;
+    private Image lazerShotgunFlare;
+    private Image doorSprite;
     private Image healthItemSprite;
     private Image escapePodSprite;
+    private Image missileSprite;
 
     // constructor
     public GameAsset()
     {
         // initliase game asset variables
-        imageScifiWall = GameEngine.loadImage("assets/visual/ScifiWall.png");
-        imageStripsScifiWall = new Image[5][WALLPIXELSIZE];
-        for (int wallType = 0; wallType < 5; wallType++)
-        {
-            for (int x = 0; x < WALLPIXELSIZE; x++)
-            {
-                imageStripsScifiWall[wallType][x] =
-                    GameEngine.subImage(imageScifiWall, wallType * WALLPIXELSIZE + x, 0, 1, WALLPIXELSIZE);
-            }
-        }
         lazerPistol = GameEngine.loadImage("assets/visual/LazerPistol.png");
         lazerRifle = GameEngine.loadImage("assets/visual/LazerRifle.png");
         lazerRiflePickup = GameEngine.loadImage("assets/visual/LazerRifleSide.png");
         lazerShotgunPickup = GameEngine.loadImage("assets/visual/LazerShotGunSide.png");
         lazerShotgun = GameEngine.loadImage("assets/visual/LazerShotGun.png");
+        lazerPistolFlare = GameEngine.loadImage("assets/visual/LazerPistolFlare.png");
+        lazerRifleFlare = GameEngine.loadImage("assets/visual/LazerRifleFlare.png");
+        lazerShotgunFlare = GameEngine.loadImage("assets/visual/LazerShotGunFlare.png");
         healthItemSprite = GameEngine.loadImage("assets/visual/HealthPack.png");
         escapePodSprite = GameEngine.loadImage("assets/visual/shell.png");
+        missileSprite = GameEngine.loadImage("assets/visual/missile.png");
+    }
+
+    // loads the wall textures when a level is loaded, copying the decoded sheet into a new
+    // arena and releasing it. The door sprite is copied out the first time so it outlives them.
+    // Each mip level is shaded to the levels it can be drawn at, walls being drawn wallScale / distance
+    // pixels high, so drawing never shades.
+    public void loadLevelTextures(double wallScale)
+    {
+        if (levelArena != null)
+            return;
+        Image imageScifiWall = GameEngine.loadImage(SCIFI_WALL);
+        if (doorSprite == null)
+        {
+            doorSprite = GameEngine.copyImage(
+                GameEngine.subImage(imageScifiWall, 4 * WALLPIXELSIZE, 0, WALLPIXELSIZE, WALLPIXELSIZE));
+        }
+
+        levelArena = Arena.ofShared();
+        OffHeapTexture sheet = OffHeapTexture.copyOf(levelArena, (BufferedImage)imageScifiWall);
+        GameEngine.releaseImage(SCIFI_WALL);
+        mipScifiWall = MipMap.buildChain(levelArena, sheet, WALL_MIP_LEVELS);
+        mipMirroredScifiWall = new OffHeapTexture[WALL_MIP_LEVELS];
+        for (int mip = 0; mip < WALL_MIP_LEVELS; mip++)
+        {
+            // Every level is an even number of texels wide, so mirroring commutes with halving
+            mipMirroredScifiWall[mip] = mipScifiWall[mip].mirrored(levelArena);
+
+            double nearest = MipMap.nearestDistance(WALLPIXELSIZE, wallScale, mip);
+            ShadeTable.prebuild(mipScifiWall[mip], nearest);
+            ShadeTable.prebuild(mipMirroredScifiWall[mip], nearest);
+        }
     }
 
-    // get one strip of the wall texture based on the width value
-    // the width value should be derived from local coords of where on a wall block a ray hits
-    // also accounts for the wallType, which is 1 to 5
-    public Image getImageStripsScifiWall(int wallType, int x)
+    // frees the wall textures when a level is unloaded, the next level decodes them again.
+    // Their shaded copies must be dropped too, see ShadeTable.clearTextures.
+    public void unloadLevelTextures()
     {
-        wallType--; // map goes from 1 to 5, but walls are from 0 to 4 in array
+        if (levelArena == null)
+            return;
+        mipScifiWall = null;
+        mipMirroredScifiWall = null;
+        levelArena.close();
+        levelArena = null;
+    }
+
+    // the whole wall texture at a smaller mip level, darkened to a ShadeTable level
+    // all wall types side by side, see getScifiWallColumn
+    public Image getShadedScifiWall(int mip, int level)
+    {
+        return ShadeTable.get(mipScifiWall[mip], level);
+    }
+
+    // getShadedScifiWall flipped left to right, column c of one is column width - 1 - c of the other.
+    // Walls seen with their texture running backwards draw from this instead of flipping the draw,
+    // which Java2D can only do through a general transform.
+    public Image getShadedMirroredScifiWall(int mip, int level)
+    {
+        return ShadeTable.get(mipMirroredScifiWall[mip], level);
+    }
+
+    // column of getShadedScifiWall(mip, ...) holding column x of the full size wallType texture
+    public int getScifiWallColumn(int wallType, int x, int mip)
+    {
+        wallType--;
         if (wallType > 4)
         {
             wallType = 1;
         }
-        return imageStripsScifiWall[wallType][x];
+        return (wallType * WALLPIXELSIZE + x) >> mip;
     }
 
     public int getWALLPIXELSIZE()
@@ -76,6 +139,23 @@ public class GameAsset
     {
         return lazerShotgunPickup;
     }
+    public Image getLazerPistolFlare()
+    {
+        return lazerPistolFlare;
+    }
+    public Image getLazerRifleFlare()
+    {
+        return lazerRifleFlare;
+    }
+    public Image getLazerShotgunFlare()
+    {
+        return lazerShotgunFlare;
+    }
+    // the door (wall type 5) as shown on the how to play screen
+    public Image getDoorSprite()
+    {
+        return doorSprite;
+    }
     public Image getHealthItemSprite()
     {
         return healthItemSprite;
@@ -83,4 +163,8 @@ public class GameAsset
     public Image getEscapePodSprite() {
         return escapePodSprite;
     }
+    public Image getMissileSprite()
+    {
+        return missileSprite;
+    }
 }
@@ -5,6 +5,7 @@ import java.awt.image.*;
 import java.io.*;
 import java.util.Random;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.imageio.*;
 import javax.sound.sampled.*;
 import javax.swing.*;
@@ -87,6 +88,22 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
         mPanel.addMouseListener(this);
         mPanel.addMouseMotionListener(this);
 
+        // Tick slowly while another window has the focus
+        mFrame.addWindowFocusListener(new WindowAdapter() {
+            @Override public void windowGainedFocus(WindowEvent e)
+            {
+                timer.setFramerate(mFramerate);
+                requestRedraw();
+                focusGained();
+            }
+
+            @Override public void windowLostFocus(WindowEvent e)
+            {
+                timer.setFramerate(Math.min(mFramerate, UNFOCUSED_FRAMERATE));
+                focusLost();
+            }
+        });
+
         // Register a key event dispatcher to get a turn in handling all
         // key events, independent of which component currently has the focus
         KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher(new KeyEventDispatcher() {
@@ -109,6 +126,16 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
             }
         });
 
+        // Swing copies the finished frame to the screen at the end of its
+        // paint pass, the time from the end of paintFrame to here is the present time
+        RepaintManager.setCurrentManager(new RepaintManager() {
+            @Override public void paintDirtyRegions()
+            {
+                super.paintDirtyRegions();
+                recordFrame(System.nanoTime() - mPaintEnd);
+            }
+        });
+
         // Resize the window
         mPanel.setPreferredSize(new Dimension(width, height));
         mFrame.setResizable(false);
@@ -117,6 +144,19 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
 
     public void setWindowSize(final int width, final int height)
     {
+        // Pre-scaled images were made for the old size
+        ImageCache.clearScaled();
+        requestRedraw();
+
+        // Without a window only the offscreen frame needs resizing
+        if (mFrame == null && GraphicsEnvironment.isHeadless())
+        {
+            mWidth = width;
+            mHeight = height;
+            mOffscreen = null;
+            return;
+        }
+
         SwingUtilities.invokeLater(new Runnable() {
             @Override public void run()
             {
@@ -135,6 +175,15 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
         return mFrame;
     }
 
+    // Sets the mouse cursor, ignored when there is no window
+    public void setCursor(Cursor cursor)
+    {
+        if (mFrame != null)
+        {
+            mFrame.setCursor(cursor);
+        }
+    }
+
     // Return the width of the window
     public int width()
     {
@@ -166,6 +215,12 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
         mWidth = width;
         mHeight = height;
 
+        // Headless runs (such as replays) render offscreen instead
+        if (GraphicsEnvironment.isHeadless())
+        {
+            return;
+        }
+
         // Create window
         SwingUtilities.invokeLater(new Runnable() {
             @Override public void run()
@@ -228,17 +283,73 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
         @Override public void actionPerformed(ActionEvent e)
         {
             // Determine the time step
-            double passedTime = measureTime();
+            long passedTime = measureTime();
             double dt = passedTime / 1000.;
 
+            // Handle the input that arrived since the last tick
+            processInput();
+
+            // Close this tick's input in the recording
+            if (mRecorder != null)
+            {
+                mRecorder.tick(passedTime);
+            }
+
+            // Start a flight recorder frame event if one is being recorded
+            if (mFrameEvent == null)
+            {
+                if (FRAME_EVENT_TYPE.isEnabled())
+                {
+                    mFrameEvent = new GameEvents.FrameEvent();
+                    mFrameEvent.begin();
+                }
+            }
+
             // Update the Game
+            long updateStart = System.nanoTime();
             update(dt);
+            AudioMixer.getInstance().prepareStreams();
+            long updateTime = System.nanoTime() - updateStart;
+            publishUpdate(updateTime);
+            if (mFrameEvent != null)
+            {
+                mFrameEvent.updateTime = updateTime;
+            }
+
+            // Static screens are only drawn again after input or a change of
+            // state, the tick after the last animated one shows the new screen
+            boolean animating = isAnimating() || mProfiler.isEnabled();
+            if (!animating && !mWasAnimating && !mRedraw)
+            {
+                mFrameEvent = null;
+                return;
+            }
+            mWasAnimating = animating;
+            mRedraw = false;
 
             // Tell the Game to draw
+            if (mProfiler.isEnabled())
+            {
+                mRepaintRequested = System.nanoTime();
+            }
             mPanel.repaint();
         }
     });
 
+    // Framerate while the window has the focus and while it does not
+    int mFramerate = 30;
+    static final int UNFOCUSED_FRAMERATE = 5;
+
+    // Set when a static screen needs drawing again
+    boolean mRedraw = true;
+    boolean mWasAnimating = true;
+
+    // Draws the next frame even if the game is not animating
+    public void requestRedraw()
+    {
+        mRedraw = true;
+    }
+
     // The GameEngine main Panel
     protected class GamePanel extends JPanel
     {
@@ -248,23 +359,81 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
         // tells the program to paint itself
         public void paintComponent(Graphics graphics)
         {
-            // Get the graphics object
-            mGraphics = (Graphics2D)graphics;
+            paintFrame((Graphics2D)graphics);
+        }
+    }
 
-            // Reset all transforms
-            mTransforms.clear();
-            mTransforms.push(mGraphics.getTransform());
+    static final RenderingHints RENDERING_HINTS =
+        new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-            // Rendering settings
-            mGraphics.setRenderingHints(
-                new RenderingHints(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON));
+    // Paints one frame of the game with the given graphics object
+    void paintFrame(Graphics2D graphics)
+    {
+        // Get the graphics object
+        mGraphics = graphics;
 
-            // Paint the game
-            if (initialised)
-            {
-                GameEngine.this.paintComponent();
-            }
+        // Reset all transforms
+        mTransforms.clear();
+        mTransforms.push(mGraphics.getTransform());
+
+        // Rendering settings
+        mGraphics.setRenderingHints(RENDERING_HINTS);
+
+        // Time spent waiting for Swing to call us after repaint()
+        if (mRepaintRequested != 0)
+        {
+            mProfiler.add(PHASE_REPAINT_WAIT, System.nanoTime() - mRepaintRequested);
+            mRepaintRequested = 0;
+        }
+
+        // Paint the game
+        long paintStart = System.nanoTime();
+        if (initialised)
+        {
+            paintComponent();
+        }
+
+        // Draw the profiler overlay on top and close the frame
+        mProfiler.draw(mGraphics);
+        mProfiler.endFrame();
+        long paintTime = System.nanoTime() - paintStart;
+        publishRender(paintStart, paintTime);
+
+        // A frame painted outside a Swing paint pass never reports its present time
+        recordFrame(-1);
+        mPaintEnd = System.nanoTime();
+        mFramePending = true;
+
+        if (mFrameEvent != null)
+        {
+            mFrameEvent.paintTime = paintTime;
+            mFrameEvent.frame = mFrameCount;
+            mFrameEvent.commit();
+            mFrameEvent = null;
         }
+        mFrameCount++;
+    }
+
+    // Offscreen frame used when running without a window
+    BufferedImage mOffscreen = null;
+
+    // Runs one tick of the game without a window: updates by
+    // passedTime milliseconds then paints into an offscreen image
+    public void runHeadlessFrame(long passedTime)
+    {
+        long updateStart = System.nanoTime();
+        update(passedTime / 1000.);
+        AudioMixer.getInstance().prepareStreams();
+        publishUpdate(System.nanoTime() - updateStart);
+
+        if (mOffscreen == null)
+        {
+            mOffscreen = new BufferedImage(mWidth, mHeight, BufferedImage.TYPE_INT_RGB);
+        }
+        Graphics2D graphics = mOffscreen.createGraphics();
+        paintFrame(graphics);
+        graphics.dispose();
+        recordFrame(-1);
     }
 
     // Initialises and starts the game loop with the given framerate.
@@ -272,13 +441,128 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
     {
         initialised = true; // assume init has been called or won't be called
 
+        mFramerate = framerate;
         timer.setFramerate(framerate);
         timer.setRepeats(true);
 
+        // Let JConsole and VisualVM watch the running game
+        GameEngineMonitor.register(this);
+
+        // Keep this session's frame times
+        if (mFrameTimeDirectory != null)
+        {
+            mFrameTimes = new FrameTimeRecorder(new File(mFrameTimeDirectory));
+        }
+
         // Main loop runs until program is closed
         timer.start();
     }
 
+    //-------------------------------------------------------
+    // Profiling functions
+    //-------------------------------------------------------
+    static final int PHASE_REPAINT_WAIT = FrameProfiler.register("repaint wait");
+    FrameProfiler mProfiler = new FrameProfiler();
+    long mRepaintRequested = 0;
+
+    // Flight recorder event for the frame in progress, null when not recording.
+    // Events cannot be reused, each frame gets its own, the type check is an
+    // instance that is never begun or committed so idle frames allocate none.
+    GameEvents.FrameEvent mFrameEvent = null;
+    static final GameEvents.FrameEvent FRAME_EVENT_TYPE = new GameEvents.FrameEvent();
+    volatile long mFrameCount = 0;
+
+    // Returns the frame profiler
+    public FrameProfiler getProfiler()
+    {
+        return mProfiler;
+    }
+
+    // Marks the start of a profiled phase
+    public void profileBegin(int phase)
+    {
+        mProfiler.begin(phase);
+    }
+
+    // Marks the end of a profiled phase
+    public void profileEnd(int phase)
+    {
+        mProfiler.end(phase);
+    }
+
+    //-------------------------------------------------------
+    // Live metrics, read by GameEngineMonitor from other threads
+    //-------------------------------------------------------
+    // Averages give the latest frame this weight, so they follow about the last 20 frames
+    static final double METRIC_AVERAGE_WEIGHT = 0.05;
+    volatile long mUpdateNanos = 0, mRenderNanos = 0, mFrameNanos = 0;
+    volatile double mAverageUpdateNanos = 0, mAverageRenderNanos = 0, mAverageFrameNanos = 0;
+    volatile String mStateName = "";
+    volatile int mLevel = 0, mLiveEnemyCount = 0, mRayCount = 0;
+    long mLastPaintStart = 0;
+
+    // Publishes the update time and the game's values after an update
+    private void publishUpdate(long nanos)
+    {
+        mUpdateNanos = nanos;
+        mAverageUpdateNanos = average(mAverageUpdateNanos, nanos);
+        mStateName = getStateName();
+        mLevel = getLevel();
+        mLiveEnemyCount = getLiveEnemyCount();
+        mRayCount = getRayCount();
+    }
+
+    // Publishes the paint time and the time since the last frame was painted
+    private void publishRender(long paintStart, long nanos)
+    {
+        mRenderNanos = nanos;
+        mAverageRenderNanos = average(mAverageRenderNanos, nanos);
+        if (mLastPaintStart != 0)
+        {
+            mFrameNanos = paintStart - mLastPaintStart;
+            mAverageFrameNanos = average(mAverageFrameNanos, mFrameNanos);
+        }
+        mLastPaintStart = paintStart;
+    }
+
+    private static double average(double average, long sample)
+    {
+        return average == 0 ? sample : average + (sample - average) * METRIC_AVERAGE_WEIGHT;
+    }
+
+    //-------------------------------------------------------
+    // Frame time histograms, see FrameTimeRecorder
+    //-------------------------------------------------------
+    String mFrameTimeDirectory = "frametimes";
+    FrameTimeRecorder mFrameTimes = null;
+    long mPaintEnd = 0;
+    boolean mFramePending = false;
+
+    // Sets where gameLoop keeps the session's frame times, null to not keep them
+    public void setFrameTimeDirectory(String directory)
+    {
+        mFrameTimeDirectory = directory;
+    }
+
+    // Hands the frame times recorded so far to the writer thread, call at the end of a level
+    public void flushFrameTimes()
+    {
+        if (mFrameTimes != null)
+        {
+            mFrameTimes.flush();
+        }
+    }
+
+    // Records the last painted frame once its present time is known, -1 if it is not
+    private void recordFrame(long presentNanos)
+    {
+        if (mFrameTimes != null && mFramePending)
+        {
+            mFrameTimes.record(mStateName, mLevel, mUpdateNanos, mRenderNanos, presentNanos);
+        }
+        mFramePending = false;
+    }
+
     //-------------------------------------------------------
     // Initialise function
     //-------------------------------------------------------
@@ -296,6 +580,60 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
     //-------------------------------------------------------
     public abstract void paintComponent();
 
+    // Whether the current screen changes from frame to frame. Screens that
+    // do not are only drawn again after input or requestRedraw.
+    public boolean isAnimating()
+    {
+        return true;
+    }
+
+    //-------------------------------------------------------
+    // Focus functions
+    //-------------------------------------------------------
+
+    // Called when the window gets the focus back
+    public void focusGained()
+    {
+    }
+
+    // Called when another window takes the focus, the loop then runs at UNFOCUSED_FRAMERATE
+    public void focusLost()
+    {
+    }
+
+    //-------------------------------------------------------
+    // Monitoring functions, shown by GameEngineMonitor
+    //-------------------------------------------------------
+
+    // Name of the current game state
+    public String getStateName()
+    {
+        return "";
+    }
+
+    // Current level, frame times are kept per state and level
+    public int getLevel()
+    {
+        return 0;
+    }
+
+    // Number of enemies still alive
+    public int getLiveEnemyCount()
+    {
+        return 0;
+    }
+
+    // Rays cast per frame, 0 for games that do not ray cast
+    public int getRayCount()
+    {
+        return 0;
+    }
+
+    // Changes the rays cast per frame, called on the game thread
+    public void setRayCount(int rays)
+    {
+    }
+
     //-------------------------------------------------------
     // Keyboard functions
     //-------------------------------------------------------
@@ -315,6 +653,117 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
     {
     }
 
+    //-------------------------------------------------------
+    // Replayable input functions
+    //-------------------------------------------------------
+    InputRecorder mRecorder = null;
+
+    // Starts recording the random seed and all handled input to a file
+    public void startRecording(String filename)
+    {
+        try
+        {
+            mRecorder = new InputRecorder(filename, getRandomSeed());
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: could not record input to " + filename);
+        }
+    }
+
+    // Input from AWT callbacks waiting for the next tick
+    InputQueue mInput = new InputQueue(256);
+
+    // Queues a key press or release for the next tick
+    public void dispatchKey(int keyCode, boolean pressed)
+    {
+        mInput.push(InputQueue.KEY, keyCode, pressed ? 1 : 0, 0);
+    }
+
+    // Queues a mouse look movement for the next tick
+    public void dispatchLook(int deltaX, int deltaY)
+    {
+        mInput.push(InputQueue.LOOK, deltaX, deltaY, 0);
+    }
+
+    // Queues a mouse click for the next tick
+    public void dispatchClick(int x, int y, int button)
+    {
+        mInput.push(InputQueue.CLICK, x, y, button);
+    }
+
+    // Drains the input queue once per tick, recording and handling each
+    // event in order. Consecutive look movements are summed into one.
+    public void processInput()
+    {
+        int lookX = 0, lookY = 0;
+        while (mInput.poll())
+        {
+            mRedraw = true;
+            int type = mInput.getType();
+            if (type == InputQueue.LOOK)
+            {
+                lookX += mInput.getA();
+                lookY += mInput.getB();
+                continue;
+            }
+
+            // Apply the look so far before anything that depends on aim
+            if (lookX != 0 || lookY != 0)
+            {
+                applyLook(lookX, lookY);
+                lookX = 0;
+                lookY = 0;
+            }
+
+            if (type == InputQueue.KEY)
+            {
+                if (mRecorder != null)
+                {
+                    mRecorder.key(mInput.getA(), mInput.getB() != 0);
+                }
+                handleKey(mInput.getA(), mInput.getB() != 0);
+            }
+            else if (type == InputQueue.CLICK)
+            {
+                if (mRecorder != null)
+                {
+                    mRecorder.click(mInput.getA(), mInput.getB(), mInput.getC());
+                }
+                handleClick(mInput.getA(), mInput.getB(), mInput.getC());
+            }
+        }
+
+        if (lookX != 0 || lookY != 0)
+        {
+            applyLook(lookX, lookY);
+        }
+    }
+
+    private void applyLook(int deltaX, int deltaY)
+    {
+        if (mRecorder != null)
+        {
+            mRecorder.look(deltaX, deltaY);
+        }
+        handleLook(deltaX, deltaY);
+    }
+
+    // Called with a key code whenever a key is pressed or released
+    public void handleKey(int keyCode, boolean pressed)
+    {
+    }
+
+    // Called with the distance the mouse moved for looking around
+    public void handleLook(int deltaX, int deltaY)
+    {
+    }
+
+    // Called with the position and button of a mouse click
+    public void handleClick(int x, int y, int button)
+    {
+    }
+
     //-------------------------------------------------------
     // Mouse functions
     //-------------------------------------------------------
@@ -370,6 +819,11 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
     Color yellow = Color.YELLOW;
     Color white = Color.WHITE;
 
+    // Shapes reused by the draw functions, Java2D does not keep the shapes it is given
+    final Line2D.Double mLine = new Line2D.Double();
+    final Rectangle2D.Double mRectangle = new Rectangle2D.Double();
+    final Ellipse2D.Double mEllipse = new Ellipse2D.Double();
+
     // Changes the background Color to the color c
     public void changeBackgroundColor(Color c)
     {
@@ -465,7 +919,8 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
     void drawLine(double x1, double y1, double x2, double y2)
     {
         // Draw a Line
-        mGraphics.draw(new Line2D.Double(x1, y1, x2, y2));
+        mLine.setLine(x1, y1, x2, y2);
+        mGraphics.draw(mLine);
     }
 
     // Draws a line from (x1,y2) to (x2,y2) with width l
@@ -475,7 +930,8 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
         mGraphics.setStroke(new BasicStroke((float)l));
 
         // Draw a Line
-        mGraphics.draw(new Line2D.Double(x1, y1, x2, y2));
+        mLine.setLine(x1, y1, x2, y2);
+        mGraphics.draw(mLine);
 
         // Reset the stroke
         mGraphics.setStroke(new BasicStroke(1.0f));
@@ -485,7 +941,8 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
     void drawRectangle(double x, double y, double w, double h)
     {
         // Draw a Rectangle
-        mGraphics.draw(new Rectangle2D.Double(x, y, w, h));
+        mRectangle.setRect(x, y, w, h);
+        mGraphics.draw(mRectangle);
     }
 
     // This function draws a rectangle at (x,y) with width and height (w,h)
@@ -496,7 +953,8 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
         mGraphics.setStroke(new BasicStroke((float)l));
 
         // Draw a Rectangle
-        mGraphics.draw(new Rectangle2D.Double(x, y, w, h));
+        mRectangle.setRect(x, y, w, h);
+        mGraphics.draw(mRectangle);
 
         // Reset the stroke
         mGraphics.setStroke(new BasicStroke(1.0f));
@@ -506,14 +964,16 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
     void drawSolidRectangle(double x, double y, double w, double h)
     {
         // Fill a Rectangle
-        mGraphics.fill(new Rectangle2D.Double(x, y, w, h));
+        mRectangle.setRect(x, y, w, h);
+        mGraphics.fill(mRectangle);
     }
 
     // This function draws a circle at (x,y) with radius
     void drawCircle(double x, double y, double radius)
     {
         // Draw a Circle
-        mGraphics.draw(new Ellipse2D.Double(x - radius, y - radius, radius * 2, radius * 2));
+        mEllipse.setFrame(x - radius, y - radius, radius * 2, radius * 2);
+        mGraphics.draw(mEllipse);
     }
 
     // This function draws a circle at (x,y) with radius
@@ -524,7 +984,8 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
         mGraphics.setStroke(new BasicStroke((float)l));
 
         // Draw a Circle
-        mGraphics.draw(new Ellipse2D.Double(x - radius, y - radius, radius * 2, radius * 2));
+        mEllipse.setFrame(x - radius, y - radius, radius * 2, radius * 2);
+        mGraphics.draw(mEllipse);
 
         // Reset the stroke
         mGraphics.setStroke(new BasicStroke(1.0f));
@@ -534,7 +995,8 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
     void drawSolidCircle(double x, double y, double radius)
     {
         // Fill a Circle
-        mGraphics.fill(new Ellipse2D.Double(x - radius, y - radius, radius * 2, radius * 2));
+        mEllipse.setFrame(x - radius, y - radius, radius * 2, radius * 2);
+        mGraphics.fill(mEllipse);
     }
 
     // This function draws text on the screen at (x,y)
@@ -575,26 +1037,16 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
     // Image Functions
     //-------------------------------------------------------
 
-    // Loads an image from file
+    // Loads an image from file, files are decoded once and shared through the ImageCache
     public static Image loadImage(String filename)
     {
-        try
-        {
-            // Load Image
-            Image image = ImageIO.read(new File(filename));
-
-            // Return Image
-            return image;
-        }
-        catch (IOException e)
-        {
-            // Show Error Message
-            System.out.println("Error: could not load image " + filename);
-            System.exit(1);
-        }
+        return ImageCache.acquire(filename);
+    }
 
-        // Return null
-        return null;
+    // Releases an image loaded with loadImage once it is no longer used
+    public static void releaseImage(String filename)
+    {
+        ImageCache.release(filename);
     }
 
     // Loads a sub-image out of an image
@@ -610,14 +1062,61 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
             return null;
         }
 
-        // Convert to a buffered image
-        BufferedImage buffered = (BufferedImage)source;
+        // Extract sub image, rectangles of loaded files are shared
+        return ImageCache.subImage(source, x, y, w, h);
+    }
 
-        // Extract sub image
-        Image image = buffered.getSubimage(x, y, w, h);
+    // Returns a copy of an image, in the same format, that shares no pixels with it
+    public static Image copyImage(Image source)
+    {
+        // Check if image is null
+        if (source == null)
+        {
+            // Print Error message
+            System.out.println("Error: cannot copy a null image.\n");
+            return null;
+        }
 
-        // Return image
-        return image;
+        BufferedImage image = (BufferedImage)source;
+        int w = image.getWidth();
+        int h = image.getHeight();
+        ColorModel model = image.getColorModel();
+        BufferedImage copy = new BufferedImage(model, model.createCompatibleWritableRaster(w, h),
+                                               model.isAlphaPremultiplied(), null);
+        copy.setRGB(0, 0, w, h, image.getRGB(0, 0, w, h, null, 0, w), 0, w);
+        return copy;
+    }
+
+    // Returns a left-right mirrored copy of an image, in the same format
+    public static Image mirrorImage(Image source)
+    {
+        // Check if image is null
+        if (source == null)
+        {
+            // Print Error message
+            System.out.println("Error: cannot mirror a null image.\n");
+            return null;
+        }
+
+        BufferedImage image = (BufferedImage)source;
+        int w = image.getWidth();
+        int h = image.getHeight();
+        ColorModel model = image.getColorModel();
+        BufferedImage mirrored = new BufferedImage(model, model.createCompatibleWritableRaster(w, h),
+                                                   model.isAlphaPremultiplied(), null);
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++)
+        {
+            image.getRGB(0, y, w, 1, row, 0, w);
+            for (int x = 0; x < w / 2; x++)
+            {
+                int swap = row[x];
+                row[x] = row[w - 1 - x];
+                row[w - 1 - x] = swap;
+            }
+            mirrored.setRGB(0, y, w, 1, row, 0, w);
+        }
+        return mirrored;
     }
 
     // Draws an image on the screen at position (x,y)
@@ -649,6 +1148,35 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
         mGraphics.drawImage(image, (int)x, (int)y, (int)w, (int)h, null);
     }
 
+    // Draws columns sx1 to sx2 and rows sy1 to sy2 of an image stretched over
+    // (x,y) with size (w,h). sx1 > sx2 draws the columns mirrored.
+    public void drawImage(Image image, double x, double y, double w, double h, int sx1, int sy1, int sx2, int sy2)
+    {
+        // Check if image is null
+        if (image == null)
+        {
+            // Print Error message
+            System.out.println("Error: cannot draw null image.\n");
+            return;
+        }
+        mGraphics.drawImage(image, (int)x, (int)y, (int)x + (int)w, (int)y + (int)h, sx1, sy1, sx2, sy2, null);
+    }
+
+    // Draws an image at (x,y) with size (w,h) from a copy scaled once for that size.
+    // Use for images drawn at the same size every frame, like backgrounds and HUD art.
+    public void drawScaledImage(Image image, double x, double y, double w, double h)
+    {
+        // Check if image is null
+        if (image == null)
+        {
+            // Print Error message
+            System.out.println("Error: cannot draw null image.\n");
+            return;
+        }
+        // Blit the pre-scaled copy
+        mGraphics.drawImage(ImageCache.getScaled(image, (int)w, (int)h), (int)x, (int)y, null);
+    }
+
     //-------------------------------------------------------
     // Transform Functions
     //-------------------------------------------------------
@@ -762,6 +1290,16 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
             // Get length (in Frames)
             mLength = stream.getFrameLength() * mFormat.getFrameSize();
 
+            // Long or unknown length files must be streamed instead
+            if (stream.getFrameLength() == AudioSystem.NOT_SPECIFIED || mLength > Integer.MAX_VALUE)
+            {
+                // Print Error
+                System.out.println("Error: Audio File too long for an AudioClip, use an AudioStream\n");
+
+                // Exit
+                System.exit(1);
+            }
+
             // Allocate Buffer Data
             mData = new byte[(int)mLength];
 
@@ -784,6 +1322,233 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
         }
     }
 
+    // Class used to play a long audio file by decoding it from disk
+    // in small chunks on the mixer thread. Two chunk buffers are used:
+    // one is mixed while the other is refilled, so memory stays constant.
+    public static class AudioStream
+    {
+        // Chunk size in frames (about 90ms at 44.1kHz)
+        static final int CHUNK_FRAMES = 4096;
+        static final int FRAME_SIZE = 4; // 16-bit stereo
+
+        // File
+        String mFilename;
+
+        // Decoder, only used by the mixer thread
+        AudioInputStream mInput;
+
+        // The next pass of the file, opened by the game thread and taken by
+        // the mixer when it restarts or loops, so the mixer never opens files
+        final AtomicReference<AudioInputStream> mNextInput = new AtomicReference<AudioInputStream>();
+
+        // Reads that return no data before a chunk counts as the end of the data
+        static final int MAX_EMPTY_READS = 3;
+
+        // Double buffer, only used by the mixer thread
+        byte[] mFront = new byte[CHUNK_FRAMES * FRAME_SIZE];
+        byte[] mBack = new byte[CHUNK_FRAMES * FRAME_SIZE];
+        int mFrontLength, mBackLength, mFrontPosition;
+        boolean mEnded;
+
+        // Playback requests from the game
+        volatile boolean mPlaying;
+        volatile boolean mRestart;
+        volatile boolean mLoop;
+        volatile float mGain = 1.0f;
+
+        public AudioStream(String filename)
+        {
+            mFilename = filename;
+        }
+
+        public String getFilename()
+        {
+            // Return mFilename
+            return mFilename;
+        }
+
+        public boolean isPlaying()
+        {
+            // Return mPlaying
+            return mPlaying;
+        }
+
+        // Opens the file converted to the mixer's output format, called on the game thread
+        AudioInputStream openInput()
+        {
+            try
+            {
+                AudioInputStream audio = AudioSystem.getAudioInputStream(new File(mFilename));
+                AudioFormat target = new AudioFormat(AudioMixer.SAMPLE_RATE, 16, 2, true, false);
+                if (!audio.getFormat().matches(target))
+                {
+                    audio = AudioSystem.getAudioInputStream(target, audio);
+                }
+                return audio;
+            }
+            catch (Exception e)
+            {
+                System.out.println("Error: cannot stream Audio File " + mFilename + "\n");
+                return null;
+            }
+        }
+
+        // Replaces the next pass with a freshly opened one, for a restart.
+        // The pass it replaces is closed.
+        boolean openNext()
+        {
+            AudioInputStream input = openInput();
+            closeInput(mNextInput.getAndSet(input));
+            return input != null;
+        }
+
+        // Opens the next pass of a looping stream ahead of time, called on the game thread
+        void prepare()
+        {
+            if (mPlaying && mLoop && mNextInput.get() == null)
+            {
+                AudioInputStream input = openInput();
+                if (input != null && !mNextInput.compareAndSet(null, input))
+                {
+                    closeInput(input);
+                }
+            }
+        }
+
+        void close()
+        {
+            closeInput(mInput);
+            mInput = null;
+        }
+
+        static void closeInput(AudioInputStream input)
+        {
+            if (input != null)
+            {
+                try
+                {
+                    input.close();
+                }
+                catch (IOException e)
+                {
+                    // Do Nothing
+                }
+            }
+        }
+
+        // Decodes the next chunk into the back buffer, wrapping to the
+        // prepared next pass mid-chunk when looping so there is no gap
+        void fillBack()
+        {
+            mBackLength = 0;
+            if (mInput == null && mLoop)
+            {
+                mInput = mNextInput.getAndSet(null);
+            }
+
+            int emptyReads = 0;
+            while (mBackLength < mBack.length && mInput != null && emptyReads < MAX_EMPTY_READS)
+            {
+                int read;
+                try
+                {
+                    read = mInput.read(mBack, mBackLength, mBack.length - mBackLength);
+                }
+                catch (IOException e)
+                {
+                    read = -1;
+                }
+
+                if (read > 0)
+                {
+                    mBackLength += read;
+                    emptyReads = 0;
+                }
+                else if (read == 0)
+                {
+                    emptyReads++;
+                }
+                else
+                {
+                    // A loop whose next pass is not ready yet carries on once prepare opens it
+                    close();
+                    if (mLoop)
+                    {
+                        mInput = mNextInput.getAndSet(null);
+                    }
+                }
+            }
+
+            // Keep whole frames only
+            mBackLength -= mBackLength % FRAME_SIZE;
+        }
+
+        void swap()
+        {
+            byte[] buffer = mFront;
+            mFront = mBack;
+            mBack = buffer;
+            mFrontLength = mBackLength;
+            mFrontPosition = 0;
+        }
+
+        // Adds up to frames of audio to the mix.
+        // Returns false once the stream has stopped and can be released.
+        boolean mixInto(int[] mix, int frames)
+        {
+            if (mRestart)
+            {
+                mRestart = false;
+                mEnded = false;
+                close();
+                mInput = mNextInput.getAndSet(null);
+                if (mInput == null)
+                {
+                    mPlaying = false;
+                }
+                else
+                {
+                    fillBack();
+                    swap();
+                    fillBack();
+                }
+            }
+
+            if (!mPlaying || mEnded)
+            {
+                close();
+                mPlaying = false;
+                return false;
+            }
+
+            float gain = mGain;
+            for (int f = 0; f < frames; f++)
+            {
+                if (mFrontPosition >= mFrontLength)
+                {
+                    if (mBackLength == 0)
+                    {
+                        fillBack();
+                    }
+                    if (mBackLength == 0)
+                    {
+                        // Nothing left to play, a loop waits for its next pass
+                        mEnded = !mLoop;
+                        return true;
+                    }
+                    swap();
+                    fillBack();
+                }
+
+                int offset = mFrontPosition;
+                mix[f * 2] += (int)((short)((mFront[offset + 1] << 8) | (mFront[offset] & 0xff)) * gain);
+                mix[f * 2 + 1] += (int)((short)((mFront[offset + 3] << 8) | (mFront[offset + 2] & 0xff)) * gain);
+                mFrontPosition += FRAME_SIZE;
+            }
+            return true;
+        }
+    }
+
     // Loads the AudioClip stored in the file specified by filename
     public static AudioClip loadAudio(String filename)
     {
@@ -793,13 +1558,31 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
             File file = new File(filename);
 
             // Open Audio Input Stream
+            GameEvents.AssetDecodeEvent event = new GameEvents.AssetDecodeEvent();
+            event.begin();
             AudioInputStream audio = AudioSystem.getAudioInputStream(file);
 
+            // Convert to the 16-bit little endian data the mixer reads
+            AudioFormat format = audio.getFormat();
+            if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED || format.getSampleSizeInBits() != 16 ||
+                format.isBigEndian())
+            {
+                AudioFormat target = new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false);
+                audio = AudioSystem.getAudioInputStream(target, audio);
+            }
+
             // Create Audio Clip
             AudioClip clip = new AudioClip(audio);
+            if (event.shouldCommit())
+            {
+                event.path = filename;
+                event.kind = "audio";
+                event.bytes = clip.getBufferSize();
+                event.commit();
+            }
 
-            // Fix pauses and mixer issues when clip is first played
-            playAudio(clip, -60);
+            // Open the mixer's output line now rather than on the first sound
+            AudioMixer.getInstance();
 
             // Return Audio Clip
             return clip;
@@ -827,30 +1610,8 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
             return;
         }
 
-        try
-        {
-            // Create a Clip
-            Clip clip = AudioSystem.getClip();
-            clip.addLineListener(new LineListener() {
-                @Override public void update(LineEvent event)
-                {
-                    if (event.getType().equals(LineEvent.Type.STOP))
-                    {
-                        clip.close();
-                    }
-                }
-            });
-            // Load data
-            clip.open(audioClip.getAudioFormat(), audioClip.getData(), 0, (int)audioClip.getBufferSize());
-
-            // Play Clip
-            clip.start();
-        }
-        catch (Exception exception)
-        {
-            // Display Error Message
-            System.out.println("Error playing Audio Clip\n");
-        }
+        // Queue the clip on the mixer
+        AudioMixer.getInstance().play(audioClip, 1.0f, 1.0f);
     }
 
     // Plays an AudioClip with a volume in decibels
@@ -866,36 +1627,32 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
             return;
         }
 
-        try
+        // Queue the clip on the mixer
+        float gain = AudioMixer.decibelsToGain(volume);
+        AudioMixer.getInstance().play(audioClip, gain, gain);
+    }
+
+    // Plays an AudioClip from a position in the world
+    public static void playAudio(AudioClip audioClip, AudioEmitter emitter)
+    {
+        // Check audioClip for null
+        if (audioClip == null)
         {
-            // Create a Clip
-            Clip clip = AudioSystem.getClip();
-            clip.addLineListener(new LineListener() {
-                @Override public void update(LineEvent event)
-                {
-                    if (event.getType().equals(LineEvent.Type.STOP))
-                    {
-                        clip.close();
-                    }
-                }
-            });
-            // Load data
-            clip.open(audioClip.getAudioFormat(), audioClip.getData(), 0, (int)audioClip.getBufferSize());
+            // Print error message
+            System.out.println("Error: audioClip is null\n");
 
-            // Create Controls
-            FloatControl control = (FloatControl)clip.getControl(FloatControl.Type.MASTER_GAIN);
+            // Return
+            return;
+        }
 
-            // Set Volume
-            control.setValue(volume);
+        // Queue the clip on the mixer, inaudible sounds are dropped
+        AudioMixer.getInstance().play(audioClip, emitter, 1.0f);
+    }
 
-            // Play Clip
-            clip.start();
-        }
-        catch (Exception exception)
-        {
-            // Display Error Message
-            System.out.println("Error: could not play Audio Clip\n");
-        }
+    // Sets the position and facing angle (in radians) positional sounds are heard from
+    public static void setAudioListener(double x, double y, double angle)
+    {
+        AudioMixer.getInstance().setListener(x, y, angle);
     }
 
     // Starts playing an AudioClip on loop
@@ -1012,23 +1769,109 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
         }
     }
 
+    // Creates an AudioStream for the file specified by filename
+    public static AudioStream loadAudioStream(String filename)
+    {
+        // Check the file exists and can be decoded
+        try
+        {
+            AudioSystem.getAudioFileFormat(new File(filename));
+        }
+        catch (Exception e)
+        {
+            // Catch Exception
+            System.out.println("Error: cannot open Audio File " + filename + "\n");
+
+            // Return Null
+            return null;
+        }
+
+        // Return Audio Stream
+        return new AudioStream(filename);
+    }
+
+    // Starts streaming an AudioStream on loop from the beginning
+    public static void startAudioLoop(AudioStream audioStream)
+    {
+        startAudioLoop(audioStream, 0.0f);
+    }
+
+    // Starts streaming an AudioStream on loop with a volume in decibels
+    public static void startAudioLoop(AudioStream audioStream, float volume)
+    {
+        // Check audioStream for null
+        if (audioStream == null)
+        {
+            // Print error message
+            System.out.println("Error: audioStream is null\n");
+
+            // Return
+            return;
+        }
+
+        // The file is opened here, the mixer thread only decodes it
+        if (!AudioMixer.getInstance().isRunning() || !audioStream.openNext())
+        {
+            return;
+        }
+        audioStream.mGain = AudioMixer.decibelsToGain(volume);
+        audioStream.mLoop = true;
+        audioStream.mRestart = true;
+        audioStream.mPlaying = true;
+        if (!AudioMixer.getInstance().addStream(audioStream))
+        {
+            audioStream.mPlaying = false;
+        }
+    }
+
+    // Stops an AudioStream playing
+    public static void stopAudioLoop(AudioStream audioStream)
+    {
+        // Check audioStream is not null
+        if (audioStream != null)
+        {
+            // The mixer thread closes the file it is decoding, the next pass
+            // is closed here unless the mixer has already taken it
+            audioStream.mPlaying = false;
+            AudioStream.closeInput(audioStream.mNextInput.getAndSet(null));
+        }
+    }
+
     //-------------------------------------------------------
     // Maths Functions
     //-------------------------------------------------------
     Random mRandom = null;
+    long mRandomSeed = System.nanoTime();
 
-    // Function that returns a random integer between 0 and max
-    public int rand(int max)
+    // Sets the seed for this session's random numbers
+    public void setRandomSeed(long seed)
+    {
+        mRandomSeed = seed;
+        mRandom = new Random(seed);
+    }
+
+    public long getRandomSeed()
+    {
+        return mRandomSeed;
+    }
+
+    // Returns the session's random number generator
+    public Random getRandom()
     {
         // Check if mRandom Exists
         if (mRandom == null)
         {
             // Create a new Random Object
-            mRandom = new Random();
+            mRandom = new Random(mRandomSeed);
         }
+        return mRandom;
+    }
 
+    // Function that returns a random integer between 0 and max
+    public int rand(int max)
+    {
         // Generate a random number
-        double d = mRandom.nextDouble();
+        double d = getRandom().nextDouble();
 
         // Convert to an integer in range [0, max) and return
         return (int)(d * max);
@@ -1037,15 +1880,8 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
     // Function that gives you a random number between 0 and max
     public float rand(float max)
     {
-        // Check if mRandom Exists
-        if (mRandom == null)
-        {
-            // Create a new Random Object
-            mRandom = new Random();
-        }
-
         // Generate a random number
-        float d = mRandom.nextFloat();
+        float d = getRandom().nextFloat();
 
         // Convert to range [0, max) and return
         return d * max;
@@ -1054,15 +1890,8 @@ public abstract class GameEngine implements KeyListener, MouseListener, MouseMot
     // Function that gives you a random number between 0 and max
     public double rand(double max)
     {
-        // Check if mRandom Exists
-        if (mRandom == null)
-        {
-            // Create a new Random Object
-            mRandom = new Random();
-        }
-
         // Generate a random number
-        double value = mRandom.nextDouble();
+        double value = getRandom().nextDouble();
 
         // Convert to range [0, max) and return
         return value * max;
@@ -0,0 +1,34 @@
+// Live metrics and a few controls of a running game, registered with the
+// platform MBean server as GameEngineMonitor.OBJECT_NAME. Attach JConsole
+// or VisualVM to the game's process and open the MBeans tab to use it.
+public interface GameEngineMXBean
+{
+    // Frames per second, from the last frame and averaged over recent frames
+    double getFps();
+    double getAverageFps();
+
+    // Milliseconds spent in update and in painting, last frame and averaged
+    double getUpdateMillis();
+    double getAverageUpdateMillis();
+    double getRenderMillis();
+    double getAverageRenderMillis();
+
+    long getFrameCount();
+    String getGameState();
+    int getLiveEnemyCount();
+
+    // Rays cast per frame, changing it takes effect from the next frame.
+    // Fewer than 2 is rejected, more than RayCaster.MAX_RAYS is clamped.
+    int getRayCount();
+    void setRayCount(int rays);
+
+    int getActiveAudioVoices();
+
+    // Decoded images held by ImageCache and the shaded copies made from them
+    int getCachedImageCount();
+    long getCachedImageBytes();
+    long getShadedTextureBytes();
+
+    boolean isProfilerEnabled();
+    void toggleProfiler();
+}
@@ -0,0 +1,135 @@
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.swing.SwingUtilities;
+
+// Implements GameEngineMXBean for a GameEngine. The getters run on JMX
+// threads, so they only read values the game publishes once per frame and
+// never touch game objects. Changes are handed to the game thread.
+public class GameEngineMonitor implements GameEngineMXBean
+{
+    public static final String OBJECT_NAME = "alderaan:type=GameEngine";
+
+    private final GameEngine engine;
+
+    GameEngineMonitor(GameEngine engine)
+    {
+        this.engine = engine;
+    }
+
+    // Registers the monitor for engine, once per process
+    public static void register(GameEngine engine)
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name))
+            {
+                server.registerMBean(new GameEngineMonitor(engine), name);
+            }
+        }
+        catch (JMException e)
+        {
+            System.out.println("Error: could not register " + OBJECT_NAME + ": " + e.getMessage());
+        }
+    }
+
+    @Override public double getFps()
+    {
+        return perSecond(engine.mFrameNanos);
+    }
+
+    @Override public double getAverageFps()
+    {
+        return perSecond(engine.mAverageFrameNanos);
+    }
+
+    @Override public double getUpdateMillis()
+    {
+        return engine.mUpdateNanos / 1e6;
+    }
+
+    @Override public double getAverageUpdateMillis()
+    {
+        return engine.mAverageUpdateNanos / 1e6;
+    }
+
+    @Override public double getRenderMillis()
+    {
+        return engine.mRenderNanos / 1e6;
+    }
+
+    @Override public double getAverageRenderMillis()
+    {
+        return engine.mAverageRenderNanos / 1e6;
+    }
+
+    @Override public long getFrameCount()
+    {
+        return engine.mFrameCount;
+    }
+
+    @Override public String getGameState()
+    {
+        return engine.mStateName;
+    }
+
+    @Override public int getLiveEnemyCount()
+    {
+        return engine.mLiveEnemyCount;
+    }
+
+    @Override public int getRayCount()
+    {
+        return engine.mRayCount;
+    }
+
+    @Override public void setRayCount(int rays)
+    {
+        if (rays < RayCaster.MIN_RAYS)
+        {
+            throw new IllegalArgumentException("At least " + RayCaster.MIN_RAYS + " rays are cast, not " + rays);
+        }
+        SwingUtilities.invokeLater(() -> engine.setRayCount(rays));
+    }
+
+    @Override public int getActiveAudioVoices()
+    {
+        return AudioMixer.getInstance().getActiveVoices();
+    }
+
+    @Override public int getCachedImageCount()
+    {
+        return ImageCache.getImageCount();
+    }
+
+    @Override public long getCachedImageBytes()
+    {
+        return ImageCache.getDecodedBytes();
+    }
+
+    @Override public long getShadedTextureBytes()
+    {
+        return ShadeTable.getShadedBytes();
+    }
+
+    @Override public boolean isProfilerEnabled()
+    {
+        return engine.mProfiler.isEnabled();
+    }
+
+    @Override public void toggleProfiler()
+    {
+        SwingUtilities.invokeLater(() -> {
+            engine.mProfiler.toggle();
+            engine.requestRedraw();
+        });
+    }
+
+    private static double perSecond(double nanos)
+    {
+        return nanos > 0 ? 1e9 / nanos : 0;
+    }
+}
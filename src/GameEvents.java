@@ -0,0 +1,119 @@
+import jdk.jfr.*;
+
+// JDK Flight Recorder events emitted by the engine and the game, so
+// hitches and GC pauses can be lined up with game activity in JMC.
+// An event records one span of time and cannot be committed twice, so each
+// use creates its own. Frame and ray cast events, created every frame, are
+// only created while a recording has them enabled.
+public class GameEvents
+{
+    @Name("alderaan.Frame")
+    @Label("Frame")
+    @Category({"Alderaan", "Rendering"})
+    @Description("One game loop tick, from the timer firing to the end of painting")
+    public static class FrameEvent extends Event
+    {
+        @Label("Frame Number")
+        public long frame;
+
+        @Label("Update Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long updateTime;
+
+        @Label("Paint Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long paintTime;
+    }
+
+    @Name("alderaan.RayCast")
+    @Label("Ray Cast Batch")
+    @Category({"Alderaan", "Rendering"})
+    @Description("Casting every ray for one frame")
+    public static class RayCastEvent extends Event
+    {
+        @Label("Rays")
+        public int rays;
+
+        @Label("Rays Hitting A Wall")
+        public int hits;
+    }
+
+    @Name("alderaan.LevelLoad")
+    @Label("Level Load")
+    @Category({"Alderaan", "Gameplay"})
+    @Description("Loading a map and spawning its entities")
+    public static class LevelLoadEvent extends Event
+    {
+        @Label("Level")
+        public int level;
+
+        @Label("Map File")
+        public String mapFile;
+
+        @Label("Enemies")
+        public int enemies;
+
+        @Label("Items")
+        public int items;
+
+        @Label("Spawn Time")
+        @Timespan(Timespan.NANOSECONDS)
+        public long spawnTime;
+    }
+
+    @Name("alderaan.AssetDecode")
+    @Label("Asset Decode")
+    @Category({"Alderaan", "Assets"})
+    @Description("Reading and decoding an image or audio file from disk")
+    public static class AssetDecodeEvent extends Event
+    {
+        @Label("Path")
+        public String path;
+
+        @Label("Kind")
+        public String kind;
+
+        @Label("Decoded Size")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("alderaan.AudioVoiceStart")
+    @Label("Audio Voice Start")
+    @Category({"Alderaan", "Audio"})
+    @Description("The mixer starting a sound on a voice")
+    public static class AudioVoiceStartEvent extends Event
+    {
+        @Label("Voice")
+        public int voice;
+
+        @Label("Active Voices")
+        public int activeVoices;
+
+        @Label("Stolen")
+        public boolean stolen;
+
+        @Label("Positional")
+        public boolean positional;
+
+        @Label("Clip Length")
+        @Timespan(Timespan.NANOSECONDS)
+        public long clipLength;
+    }
+
+    @Name("alderaan.AIStateChange")
+    @Label("AI State Change")
+    @Category({"Alderaan", "Gameplay"})
+    @Description("An enemy's AI switching state")
+    public static class AIStateChangeEvent extends Event
+    {
+        @Label("From")
+        public String from;
+
+        @Label("To")
+        public String to;
+
+        @Label("Distance To Player")
+        public double distance;
+    }
+}
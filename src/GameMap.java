@@ -1,4 +1,3 @@
-import java.awt.Color;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
@@ -9,6 +8,9 @@ public class GameMap
     public static final int HEIGHT = 32;
     private int[][] grid;
 
+    // Bumped whenever the grid changes, so caches built from it know to rebuild
+    private int version = 0;
+
     public GameMap()
     {
         grid = new int[HEIGHT][WIDTH];
@@ -16,6 +18,7 @@ public class GameMap
 
     public boolean loadFromFile(String filename)
     {
+        version++;
         try (BufferedReader br = new BufferedReader(new FileReader(filename)))
         {
             for (int y = 0; y < HEIGHT; y++)
@@ -81,6 +84,11 @@ public class GameMap
         return grid;
     }
 
+    public int getVersion()
+    {
+        return version;
+    }
+
     public int getWidth()
     {
         return WIDTH;
@@ -98,38 +106,6 @@ public class GameMap
         return grid[tileY][tileX] == 0 || grid[tileY][tileX] == 9;
     }
 
-    public void draw(GameEngine engine, int miniTileSize, int offsetX, int offsetY, double playerX, double playerY,
-                     int visionRadius, int worldTileSize)
-    {
-        int playerTileX = (int)(playerX / worldTileSize);
-        int playerTileY = (int)(playerY / worldTileSize);
-
-        for (int y = 0; y < HEIGHT; y++)
-        {
-            for (int x = 0; x < WIDTH; x++)
-            {
-                double dx = x - playerTileX;
-                double dy = y - playerTileY;
-                double distance = Math.sqrt(dx * dx + dy * dy);
-
-                if (distance <= visionRadius)
-                {
-                    if (grid[y][x] >= 1)
-                        engine.changeColor(Color.gray);
-                    else
-                        engine.changeColor(engine.black);
-                }
-                else
-                {
-                    engine.changeColor(engine.black);
-                }
-
-                engine.drawSolidRectangle(offsetX + x * miniTileSize, offsetY + y * miniTileSize, miniTileSize,
-                                          miniTileSize);
-            }
-        }
-    }
-
     public boolean isWall(int x, int y)
     {
         if (x < 0 || y < 0 || x >= WIDTH || y >= HEIGHT)
@@ -150,6 +126,30 @@ public class GameMap
         return 1; // default to one
     }
 
+    // Returns true if no wall tile lies on the line between two world positions
+    public boolean hasLineOfSight(double x1, double y1, double x2, double y2, int tileSize)
+    {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        int steps = (int)Math.ceil(distance / (tileSize / 2.0));
+        if (steps == 0)
+            return true;
+
+        double stepX = dx / steps;
+        double stepY = dy / steps;
+        double testX = x1;
+        double testY = y1;
+        for (int i = 0; i < steps; i++)
+        {
+            testX += stepX;
+            testY += stepY;
+            if (isWall((int)(testX / tileSize), (int)(testY / tileSize)))
+                return false;
+        }
+        return true;
+    }
+
     public boolean isEndTile(int x, int y)
     {
         return grid[y][x] == 9;
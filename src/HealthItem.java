@@ -14,7 +14,7 @@ public class HealthItem
         this.consumed = false;
     }
 
-    public void render(GameEngine engine, Player player, double[] rayDistances)
+    public void render(GameEngine engine, Player player, double[] rayDistances, int numRays)
     {
         if (consumed)
             return; // No render if consumed
@@ -39,7 +39,6 @@ public class HealthItem
         if (screenX < 0 || screenX >= screenWidth)
             return;
 
-        int numRays = rayDistances.length;
         double stripWidth = (double)screenWidth / numRays;
         int rayIndex = (int)(screenX / stripWidth);
 
@@ -0,0 +1,280 @@
+import java.util.List;
+
+// Resolves instant-hit shots. Enemies are bucketed into the map's tiles,
+// then every pellet is marched through the grid (DDA) until it reaches a
+// wall, testing only the enemies in the tiles it passes through. All
+// pellets of a shot are resolved in one pass and the enemies hit are
+// returned nearest first. Buffers are reused, so firing does not allocate.
+public class Hitscan
+{
+    private GameMap map;
+    private final int tileSize;
+    private final double targetRadius;
+
+    // Enemies bucketed per tile as linked lists of entries
+    private final int[] cellHead;
+    private int[] entryEnemy = new int[64];
+    private int[] entryNext = new int[64];
+    private int entryCount = 0;
+    private Enemy[] enemyArray = new Enemy[32];
+
+    // Per enemy accumulation for the current shot
+    private int[] enemyPellets = new int[32];
+    private double[] enemyDistance = new double[32];
+
+    // Sorted results
+    private int[] hits = new int[32];
+    private int hitCount = 0;
+
+    // Per pellet results
+    private static final int MAX_PELLETS = 32;
+    private final double[] pelletEndX = new double[MAX_PELLETS];
+    private final double[] pelletEndY = new double[MAX_PELLETS];
+    private final boolean[] pelletHitWall = new boolean[MAX_PELLETS];
+    private int pelletCount = 0;
+
+    public Hitscan(GameMap map, int tileSize, double targetRadius)
+    {
+        this.map = map;
+        this.tileSize = tileSize;
+        this.targetRadius = targetRadius;
+        cellHead = new int[map.getWidth() * map.getHeight()];
+    }
+
+    public void setMap(GameMap map)
+    {
+        this.map = map;
+    }
+
+    // Fires pellets spread evenly across the spread angle (radians) around
+    // angle, all from (x, y). Returns the number of enemies hit.
+    public int fire(List<Enemy> enemies, double x, double y, double angle, int pellets, double spread)
+    {
+        pellets = Math.max(1, Math.min(MAX_PELLETS, pellets));
+        buildGrid(enemies);
+
+        for (int i = 0; i < enemies.size(); i++)
+        {
+            enemyPellets[i] = 0;
+            enemyDistance[i] = Double.MAX_VALUE;
+        }
+
+        pelletCount = pellets;
+        for (int p = 0; p < pellets; p++)
+        {
+            double pelletAngle = angle;
+            if (pellets > 1)
+            {
+                pelletAngle += spread * ((p + 0.5) / pellets - 0.5);
+            }
+            march(p, x, y, pelletAngle);
+        }
+
+        // Collect the enemies hit, nearest first
+        hitCount = 0;
+        for (int i = 0; i < enemies.size(); i++)
+        {
+            if (enemyPellets[i] == 0)
+                continue;
+
+            int slot = hitCount++;
+            while (slot > 0 && enemyDistance[hits[slot - 1]] > enemyDistance[i])
+            {
+                hits[slot] = hits[slot - 1];
+                slot--;
+            }
+            hits[slot] = i;
+        }
+        return hitCount;
+    }
+
+    // Results of the last shot
+    public int getHitCount()
+    {
+        return hitCount;
+    }
+
+    public Enemy getHitEnemy(int i)
+    {
+        return enemyArray[hits[i]];
+    }
+
+    // Number of pellets that struck the enemy
+    public int getHitPellets(int i)
+    {
+        return enemyPellets[hits[i]];
+    }
+
+    public double getHitDistance(int i)
+    {
+        return enemyDistance[hits[i]];
+    }
+
+    public int getPelletCount()
+    {
+        return pelletCount;
+    }
+
+    // Where the pellet stopped, on an enemy or a wall
+    public double getPelletEndX(int p)
+    {
+        return pelletEndX[p];
+    }
+
+    public double getPelletEndY(int p)
+    {
+        return pelletEndY[p];
+    }
+
+    public boolean getPelletHitWall(int p)
+    {
+        return pelletHitWall[p];
+    }
+
+    // Buckets every live enemy into each tile its hit circle overlaps
+    private void buildGrid(List<Enemy> enemies)
+    {
+        int count = enemies.size();
+        if (count > enemyArray.length)
+        {
+            int capacity = Integer.highestOneBit(count) << 1;
+            enemyArray = new Enemy[capacity];
+            enemyPellets = new int[capacity];
+            enemyDistance = new double[capacity];
+            hits = new int[capacity];
+        }
+        if (count * 4 > entryEnemy.length)
+        {
+            entryEnemy = new int[count * 8];
+            entryNext = new int[count * 8];
+        }
+
+        for (int i = 0; i < cellHead.length; i++)
+        {
+            cellHead[i] = -1;
+        }
+        entryCount = 0;
+
+        int width = map.getWidth();
+        int height = map.getHeight();
+        for (int i = 0; i < count; i++)
+        {
+            Enemy enemy = enemies.get(i);
+            enemyArray[i] = enemy;
+            if (!enemy.isAlive())
+                continue;
+
+            int minX = Math.max(0, (int)((enemy.getX() - targetRadius) / tileSize));
+            int maxX = Math.min(width - 1, (int)((enemy.getX() + targetRadius) / tileSize));
+            int minY = Math.max(0, (int)((enemy.getY() - targetRadius) / tileSize));
+            int maxY = Math.min(height - 1, (int)((enemy.getY() + targetRadius) / tileSize));
+            for (int ty = minY; ty <= maxY; ty++)
+            {
+                for (int tx = minX; tx <= maxX; tx++)
+                {
+                    int cell = ty * width + tx;
+                    entryEnemy[entryCount] = i;
+                    entryNext[entryCount] = cellHead[cell];
+                    cellHead[cell] = entryCount++;
+                }
+            }
+        }
+    }
+
+    // Walks one pellet through the grid until it hits an enemy or a wall
+    private void march(int pellet, double x, double y, double angle)
+    {
+        double dirX = Math.cos(angle);
+        double dirY = Math.sin(angle);
+        int width = map.getWidth();
+
+        int tileX = (int)(x / tileSize);
+        int tileY = (int)(y / tileSize);
+        int stepX = dirX > 0 ? 1 : -1;
+        int stepY = dirY > 0 ? 1 : -1;
+
+        // Ray distance to the first vertical and horizontal tile edges
+        double deltaX = Math.abs(dirX) < 1e-9 ? Double.MAX_VALUE : tileSize / Math.abs(dirX);
+        double deltaY = Math.abs(dirY) < 1e-9 ? Double.MAX_VALUE : tileSize / Math.abs(dirY);
+        double edgeX = dirX > 0 ? (tileX + 1) * tileSize - x : x - tileX * tileSize;
+        double edgeY = dirY > 0 ? (tileY + 1) * tileSize - y : y - tileY * tileSize;
+        double nextX = deltaX == Double.MAX_VALUE ? Double.MAX_VALUE : edgeX / Math.abs(dirX);
+        double nextY = deltaY == Double.MAX_VALUE ? Double.MAX_VALUE : edgeY / Math.abs(dirY);
+
+        int maxSteps = map.getWidth() + map.getHeight();
+        for (int step = 0; step <= maxSteps; step++)
+        {
+            double cellExit = Math.min(nextX, nextY);
+
+            // Nearest enemy in this tile along the pellet
+            int nearest = -1;
+            double nearestDistance = Double.MAX_VALUE;
+            if (tileX >= 0 && tileY >= 0 && tileX < width && tileY < map.getHeight())
+            {
+                for (int e = cellHead[tileY * width + tileX]; e != -1; e = entryNext[e])
+                {
+                    int index = entryEnemy[e];
+                    double distance = intersect(enemyArray[index], x, y, dirX, dirY);
+                    if (distance < nearestDistance)
+                    {
+                        nearest = index;
+                        nearestDistance = distance;
+                    }
+                }
+            }
+
+            // Enemies overlapping later tiles are also bucketed here, so
+            // a hit before this tile's exit is the nearest on the pellet
+            if (nearest != -1 && nearestDistance <= cellExit)
+            {
+                enemyPellets[nearest]++;
+                enemyDistance[nearest] = Math.min(enemyDistance[nearest], nearestDistance);
+                pelletEndX[pellet] = x + dirX * nearestDistance;
+                pelletEndY[pellet] = y + dirY * nearestDistance;
+                pelletHitWall[pellet] = false;
+                return;
+            }
+
+            // Step into the next tile
+            if (nextX < nextY)
+            {
+                tileX += stepX;
+                nextX += deltaX;
+            }
+            else
+            {
+                tileY += stepY;
+                nextY += deltaY;
+            }
+
+            if (map.isWall(tileX, tileY))
+            {
+                pelletEndX[pellet] = x + dirX * cellExit;
+                pelletEndY[pellet] = y + dirY * cellExit;
+                pelletHitWall[pellet] = true;
+                return;
+            }
+        }
+
+        pelletEndX[pellet] = x;
+        pelletEndY[pellet] = y;
+        pelletHitWall[pellet] = false;
+    }
+
+    // Distance along the ray to the enemy's hit circle, or MAX_VALUE if missed
+    private double intersect(Enemy enemy, double x, double y, double dirX, double dirY)
+    {
+        double toX = enemy.getX() - x;
+        double toY = enemy.getY() - y;
+        double along = toX * dirX + toY * dirY;
+        if (along < 0)
+            return Double.MAX_VALUE;
+
+        double perpendicular2 = toX * toX + toY * toY - along * along;
+        double radius2 = targetRadius * targetRadius;
+        if (perpendicular2 > radius2)
+            return Double.MAX_VALUE;
+
+        return Math.max(0, along - Math.sqrt(radius2 - perpendicular2));
+    }
+}
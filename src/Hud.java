@@ -0,0 +1,203 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+// The in-game HUD as cached layers. The minimap is baked once per level
+// and only the tiles entering or leaving the vision radius are repainted
+// when the player crosses into another tile. The health and weapon widgets
+// are rendered into images that are redrawn only when the values they
+// show change, so a normal frame is a few blits.
+public class Hud
+{
+    public static final int MINI_MAP_SIZE = 128;
+    private static final int WALL = 0xFF808080;  // Color.gray
+    private static final int HIDDEN = 0xFF000000;
+    private static final int BORDER = 0xFFFFFFFF;
+
+    private static final Font HEALTH_FONT = new Font("Arial", Font.PLAIN, 20);
+    private static final Font NAME_FONT = new Font("Arial", Font.PLAIN, 16);
+    private static final Font AMMO_FONT = new Font("Arial", Font.PLAIN, 30);
+    private static final Font UNLIMITED_FONT = new Font("Arial", Font.PLAIN, 60);
+
+    // Minimap layer, the tiles plus a one pixel border
+    private BufferedImage minimap;
+    private int[] minimapPixels;
+    private boolean[] walls;
+    private int mapWidth, mapHeight, miniTileSize;
+    private int revealedX = Integer.MIN_VALUE, revealedY = Integer.MIN_VALUE, revealedRadius = -1;
+
+    // Health widget and the values it shows
+    private BufferedImage health;
+    private int shownHealth = -1, shownMaxHealth = -1;
+
+    // Weapon widget and the values it shows
+    private BufferedImage weapon;
+    private Weapon shownWeapon;
+    private int shownMag = -1, shownTotal = -1;
+
+    // Bakes the minimap for a newly loaded map
+    public void bakeMinimap(GameMap map)
+    {
+        mapWidth = map.getWidth();
+        mapHeight = map.getHeight();
+        miniTileSize = MINI_MAP_SIZE / mapWidth;
+        walls = new boolean[mapWidth * mapHeight];
+        int[][] grid = map.getGrid();
+        for (int y = 0; y < mapHeight; y++)
+        {
+            for (int x = 0; x < mapWidth; x++)
+            {
+                walls[y * mapWidth + x] = grid[y][x] >= 1;
+            }
+        }
+
+        int size = MINI_MAP_SIZE + 3;
+        minimap = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        minimapPixels = ((DataBufferInt)minimap.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < size; i++)
+        {
+            minimapPixels[i] = BORDER;
+            minimapPixels[(size - 1) * size + i] = BORDER;
+            minimapPixels[i * size] = BORDER;
+            minimapPixels[i * size + size - 1] = BORDER;
+        }
+        for (int y = 0; y < mapHeight; y++)
+        {
+            for (int x = 0; x < mapWidth; x++)
+            {
+                fillTile(x, y, HIDDEN);
+            }
+        }
+        revealedX = Integer.MIN_VALUE;
+        revealedY = Integer.MIN_VALUE;
+    }
+
+    // Draws the minimap with its top left tile at (offsetX, offsetY), showing
+    // the tiles within visionRadius tiles of the player
+    public void drawMinimap(GameEngine g, Player player, int offsetX, int offsetY, int visionRadius, int tileSize)
+    {
+        int playerTileX = (int)(player.getX() / tileSize);
+        int playerTileY = (int)(player.getY() / tileSize);
+        if (playerTileX != revealedX || playerTileY != revealedY || visionRadius != revealedRadius)
+        {
+            reveal(playerTileX, playerTileY, visionRadius);
+        }
+        g.mGraphics.drawImage(minimap, offsetX - 1, offsetY - 1, null);
+    }
+
+    // Repaints the tiles that were or now are inside the vision radius
+    private void reveal(int tileX, int tileY, int radius)
+    {
+        if (revealedRadius >= 0 && revealedX != Integer.MIN_VALUE)
+        {
+            paintCircle(revealedX, revealedY, revealedRadius, tileX, tileY, radius);
+        }
+        paintCircle(tileX, tileY, radius, tileX, tileY, radius);
+        revealedX = tileX;
+        revealedY = tileY;
+        revealedRadius = radius;
+    }
+
+    // Repaints the tiles around (areaX, areaY) for the view from (tileX, tileY)
+    private void paintCircle(int areaX, int areaY, int areaRadius, int tileX, int tileY, int radius)
+    {
+        int minX = Math.max(0, areaX - areaRadius);
+        int maxX = Math.min(mapWidth - 1, areaX + areaRadius);
+        int minY = Math.max(0, areaY - areaRadius);
+        int maxY = Math.min(mapHeight - 1, areaY + areaRadius);
+        for (int y = minY; y <= maxY; y++)
+        {
+            for (int x = minX; x <= maxX; x++)
+            {
+                int dx = x - tileX;
+                int dy = y - tileY;
+                boolean visible = dx * dx + dy * dy <= radius * radius;
+                fillTile(x, y, visible && walls[y * mapWidth + x] ? WALL : HIDDEN);
+            }
+        }
+    }
+
+    private void fillTile(int x, int y, int argb)
+    {
+        int size = minimap.getWidth();
+        for (int row = 0; row < miniTileSize; row++)
+        {
+            int offset = (1 + y * miniTileSize + row) * size + 1 + x * miniTileSize;
+            for (int column = 0; column < miniTileSize; column++)
+            {
+                minimapPixels[offset + column] = argb;
+            }
+        }
+    }
+
+    // Health bar and text, bottom left
+    public void drawHealth(GameEngine g, Player player)
+    {
+        int x = 10;
+        int y = g.height() - 52;
+        if (health == null || player.getHealth() != shownHealth || player.getMaxHealth() != shownMaxHealth)
+        {
+            shownHealth = player.getHealth();
+            shownMaxHealth = player.getMaxHealth();
+            if (health == null)
+            {
+                health = new BufferedImage(320, 32, BufferedImage.TYPE_INT_ARGB);
+            }
+            Graphics2D graphics = begin(health);
+            graphics.setColor(Color.gray);
+            graphics.fillRect(0, 2, 200, 20);
+            graphics.setColor(Color.green);
+            graphics.fillRect(0, 2, (int)(200 * player.getHealthPercentage()), 20);
+            graphics.setColor(Color.white);
+            graphics.setFont(HEALTH_FONT);
+            graphics.drawString(shownHealth + "/" + shownMaxHealth, 210, 22);
+            graphics.dispose();
+        }
+        g.mGraphics.drawImage(health, x, y, null);
+    }
+
+    // Weapon name and ammo, bottom right
+    public void drawWeapon(GameEngine g, Weapon current)
+    {
+        int x = g.width() - 125;
+        int y = g.height() - 90;
+        int total = current.isUnlimitedAmmo() ? -1 : current.getTotalAmmo();
+        if (weapon == null || current != shownWeapon || current.getCurrentMagAmmo() != shownMag || total != shownTotal)
+        {
+            shownWeapon = current;
+            shownMag = current.getCurrentMagAmmo();
+            shownTotal = total;
+            if (weapon == null)
+            {
+                weapon = new BufferedImage(125, 90, BufferedImage.TYPE_INT_ARGB);
+            }
+            Graphics2D graphics = begin(weapon);
+            graphics.setColor(Color.green);
+            graphics.setFont(NAME_FONT);
+            graphics.drawString(current.getName(), 5, 20);
+            if (current.isUnlimitedAmmo())
+            {
+                graphics.setFont(UNLIMITED_FONT);
+                graphics.drawString("∞", 25, 80);
+            }
+            else
+            {
+                graphics.setFont(AMMO_FONT);
+                graphics.drawString(shownMag + " / " + shownTotal, 5, 70);
+            }
+            graphics.dispose();
+        }
+        g.mGraphics.drawImage(weapon, x, y, null);
+    }
+
+    // Clears a widget image for redrawing
+    private static Graphics2D begin(BufferedImage image)
+    {
+        Graphics2D graphics = image.createGraphics();
+        graphics.setComposite(AlphaComposite.Clear);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.setComposite(AlphaComposite.SrcOver);
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        return graphics;
+    }
+}
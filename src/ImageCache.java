@@ -0,0 +1,252 @@
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+// Decoded images shared by path. GameEngine.loadImage and subImage go
+// through here, so each file is read from disk once and each sub-rectangle
+// of it is cut once. Loads are reference counted and an image is dropped
+// when its last user releases it, which GameAsset does with the wall
+// sheet once it has copied it into the level's arena. Hit and miss
+// counts show whether any decoding still happens while the game is running.
+//
+// Decoded images are converted to the screen's compatible format so Java2D
+// can accelerate them, and images drawn stretched every frame (backgrounds,
+// HUD art) can be kept pre-scaled for the current window size.
+public class ImageCache
+{
+    private static class Entry
+    {
+        final String path;
+        final BufferedImage image;
+        int references;
+
+        Entry(String path, BufferedImage image)
+        {
+            this.path = path;
+            this.image = image;
+        }
+    }
+
+    private static final Map<String, Entry> images = new HashMap<>();
+    private static final Map<Image, String> paths = new IdentityHashMap<>();
+    private static final Map<String, Image> subImages = new HashMap<>();
+
+    // Pre-scaled copies, at most one size per source
+    private static final Map<Image, BufferedImage> scaled = new IdentityHashMap<>();
+
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long subImageHits = 0;
+    private static long subImageMisses = 0;
+    private static long decodedBytes = 0;
+
+    // Returns the image at path, decoding it on the first request
+    public static synchronized Image acquire(String path)
+    {
+        Entry entry = images.get(path);
+        if (entry != null)
+        {
+            hits++;
+            entry.references++;
+            return entry.image;
+        }
+
+        misses++;
+        BufferedImage image = decode(path);
+        if (image == null)
+            return null;
+
+        entry = new Entry(path, image);
+        entry.references = 1;
+        images.put(path, entry);
+        paths.put(image, path);
+        decodedBytes += 4L * image.getWidth() * image.getHeight();
+        return image;
+    }
+
+    // Gives up one reference, the image and its sub-images are dropped with the last one
+    public static synchronized void release(String path)
+    {
+        Entry entry = images.get(path);
+        if (entry == null || --entry.references > 0)
+            return;
+
+        images.remove(path);
+        paths.remove(entry.image);
+        scaled.remove(entry.image);
+        String prefix = path + "@";
+        for (Iterator<String> keys = subImages.keySet().iterator(); keys.hasNext();)
+        {
+            if (keys.next().startsWith(prefix))
+                keys.remove();
+        }
+        decodedBytes -= 4L * entry.image.getWidth() * entry.image.getHeight();
+    }
+
+    // A rectangle of source. Rectangles of cached files are shared by path
+    // and position, other images (shaded or generated) are cut directly.
+    public static synchronized Image subImage(Image source, int x, int y, int w, int h)
+    {
+        String path = paths.get(source);
+        if (path == null)
+            return ((BufferedImage)source).getSubimage(x, y, w, h);
+
+        String key = path + "@" + x + "," + y + "," + w + "," + h;
+        Image image = subImages.get(key);
+        if (image != null)
+        {
+            subImageHits++;
+            return image;
+        }
+
+        subImageMisses++;
+        image = ((BufferedImage)source).getSubimage(x, y, w, h);
+        subImages.put(key, image);
+        return image;
+    }
+
+    private static BufferedImage decode(String path)
+    {
+        try
+        {
+            GameEvents.AssetDecodeEvent event = new GameEvents.AssetDecodeEvent();
+            event.begin();
+            BufferedImage image = ImageIO.read(new File(path));
+            if (image != null)
+            {
+                image = toCompatible(image);
+            }
+            if (image != null && event.shouldCommit())
+            {
+                event.path = path;
+                event.kind = "image";
+                event.bytes = 4L * image.getWidth() * image.getHeight();
+                event.commit();
+            }
+            return image;
+        }
+        catch (IOException e)
+        {
+            // Show Error Message
+            System.out.println("Error: could not load image " + path);
+            System.exit(1);
+        }
+        return null;
+    }
+
+    // source drawn at w x h, scaled once and reused while the size stays the same
+    public static synchronized Image getScaled(Image source, int w, int h)
+    {
+        BufferedImage image = scaled.get(source);
+        if (image != null && image.getWidth() == w && image.getHeight() == h)
+            return image;
+
+        int transparency = source instanceof BufferedImage ? ((BufferedImage)source).getTransparency()
+                                                           : Transparency.TRANSLUCENT;
+        image = createCompatible(w, h, transparency);
+        // Same sampling as drawing it stretched, so pixel art stays sharp
+        Graphics2D graphics = image.createGraphics();
+        graphics.drawImage(source, 0, 0, w, h, null);
+        graphics.dispose();
+        scaled.put(source, image);
+        return image;
+    }
+
+    // Drops the pre-scaled copies, called when the window is resized
+    public static synchronized void clearScaled()
+    {
+        scaled.clear();
+    }
+
+    // Copies the image into the format the screen draws fastest. Images
+    // saved with an alpha channel they never use become opaque, which lets
+    // Java2D scale them with a plain blit instead of a general transform.
+    private static BufferedImage toCompatible(BufferedImage image)
+    {
+        int transparency = isFullyOpaque(image) ? Transparency.OPAQUE : image.getTransparency();
+        BufferedImage compatible = createCompatible(image.getWidth(), image.getHeight(), transparency);
+        if (compatible.getColorModel().equals(image.getColorModel()))
+            return image;
+
+        Graphics2D graphics = compatible.createGraphics();
+        graphics.drawImage(image, 0, 0, null);
+        graphics.dispose();
+        return compatible;
+    }
+
+    private static boolean isFullyOpaque(BufferedImage image)
+    {
+        if (image.getTransparency() == Transparency.OPAQUE)
+            return true;
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        for (int pixel : pixels)
+        {
+            if ((pixel >>> 24) != 0xFF)
+                return false;
+        }
+        return true;
+    }
+
+    private static BufferedImage createCompatible(int w, int h, int transparency)
+    {
+        if (GraphicsEnvironment.isHeadless())
+        {
+            int type = transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+            return new BufferedImage(w, h, type);
+        }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment()
+            .getDefaultScreenDevice()
+            .getDefaultConfiguration()
+            .createCompatibleImage(w, h, transparency);
+    }
+
+    //-------------------------------------------------------
+    // Statistics
+    //-------------------------------------------------------
+
+    public static synchronized long getHits()
+    {
+        return hits;
+    }
+
+    // Every miss is a decode from disk
+    public static synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public static synchronized long getSubImageHits()
+    {
+        return subImageHits;
+    }
+
+    public static synchronized long getSubImageMisses()
+    {
+        return subImageMisses;
+    }
+
+    public static synchronized int getImageCount()
+    {
+        return images.size();
+    }
+
+    public static synchronized long getDecodedBytes()
+    {
+        return decodedBytes;
+    }
+
+    public static synchronized String getStatistics()
+    {
+        return String.format("images %d (%d KB), hits %d, misses %d, sub-images %d hits %d misses", images.size(),
+                             decodedBytes / 1024, hits, misses, subImageHits, subImageMisses);
+    }
+}
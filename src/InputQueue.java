@@ -0,0 +1,94 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Single-producer, single-consumer ring buffer of primitive input events.
+// AWT callbacks push events without blocking or allocating and the
+// simulation drains them once per tick, so input never races the frame.
+public class InputQueue
+{
+    public static final int KEY = 1;   // a = key code, b = 1 if pressed
+    public static final int LOOK = 2;  // a = delta x, b = delta y
+    public static final int CLICK = 3; // a = x, b = y, c = button
+
+    private final int capacity;
+    private final int mask;
+    private final int[] type;
+    private final int[] a, b, c;
+
+    // Next slot to read (consumer) and to write (producer)
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // Last polled event, only used by the consumer
+    private int polledType, polledA, polledB, polledC;
+
+    // Capacity is rounded up to a power of two
+    public InputQueue(int capacity)
+    {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        type = new int[this.capacity];
+        a = new int[this.capacity];
+        b = new int[this.capacity];
+        c = new int[this.capacity];
+    }
+
+    // Adds an event; returns false and drops it if the queue is full
+    public boolean push(int eventType, int eventA, int eventB, int eventC)
+    {
+        long position = tail.get();
+        if (position - head.get() == capacity)
+        {
+            return false;
+        }
+
+        int index = (int)(position & mask);
+        type[index] = eventType;
+        a[index] = eventA;
+        b[index] = eventB;
+        c[index] = eventC;
+
+        // Publish the event to the consumer
+        tail.lazySet(position + 1);
+        return true;
+    }
+
+    // Takes the oldest event; returns false if the queue is empty
+    public boolean poll()
+    {
+        long position = head.get();
+        if (position == tail.get())
+        {
+            return false;
+        }
+
+        int index = (int)(position & mask);
+        polledType = type[index];
+        polledA = a[index];
+        polledB = b[index];
+        polledC = c[index];
+
+        // Hand the slot back to the producer
+        head.lazySet(position + 1);
+        return true;
+    }
+
+    public int getType()
+    {
+        return polledType;
+    }
+
+    public int getA()
+    {
+        return polledA;
+    }
+
+    public int getB()
+    {
+        return polledB;
+    }
+
+    public int getC()
+    {
+        return polledC;
+    }
+}
@@ -0,0 +1,105 @@
+import java.io.*;
+
+// Writes the session's random seed and every input event, grouped by
+// simulation tick, to a compact binary log that InputReplay can play back.
+//
+// Layout: int MAGIC, short VERSION, long seed, then records that each
+// start with an opcode byte:
+//   TICK  short passed milliseconds (closes the tick)
+//   KEY   short key code, byte pressed
+//   LOOK  short delta x, short delta y
+//   CLICK short x, short y, byte button
+public final class InputRecorder
+{
+    public static final int MAGIC = 0x414C4452; // "ALDR"
+    public static final short VERSION = 1;
+
+    public static final byte TICK = 0;
+    public static final byte KEY = 1;
+    public static final byte LOOK = 2;
+    public static final byte CLICK = 3;
+
+    private DataOutputStream out;
+
+    public InputRecorder(String filename, long seed) throws IOException
+    {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(seed);
+
+        // Make sure the log is complete when the window is closed
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "InputRecorder"));
+    }
+
+    public synchronized void tick(long passedTime)
+    {
+        write(TICK, (int)Math.min(passedTime, Short.MAX_VALUE), 0, 0);
+    }
+
+    public synchronized void key(int keyCode, boolean pressed)
+    {
+        write(KEY, keyCode, pressed ? 1 : 0, 0);
+    }
+
+    public synchronized void look(int deltaX, int deltaY)
+    {
+        write(LOOK, deltaX, deltaY, 0);
+    }
+
+    public synchronized void click(int x, int y, int button)
+    {
+        write(CLICK, x, y, button);
+    }
+
+    private void write(byte opcode, int a, int b, int c)
+    {
+        if (out == null)
+            return;
+
+        try
+        {
+            out.writeByte(opcode);
+            switch (opcode)
+            {
+            case TICK:
+                out.writeShort(a);
+                break;
+            case KEY:
+                out.writeShort(a);
+                out.writeByte(b);
+                break;
+            case LOOK:
+                out.writeShort(a);
+                out.writeShort(b);
+                break;
+            case CLICK:
+                out.writeShort(a);
+                out.writeShort(b);
+                out.writeByte(c);
+                break;
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: could not write input recording, stopping");
+            close();
+        }
+    }
+
+    public synchronized void close()
+    {
+        if (out == null)
+            return;
+
+        try
+        {
+            out.close();
+        }
+        catch (IOException e)
+        {
+            // Do Nothing
+        }
+        out = null;
+    }
+}
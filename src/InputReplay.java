@@ -0,0 +1,141 @@
+import java.io.*;
+import java.util.Arrays;
+
+// Plays an InputRecorder log back through the game without a window.
+// Every recorded tick runs Main.update and renders offscreen, so the same
+// session can be re-run on each build and its frame times compared.
+//
+// Usage: java -Djava.awt.headless=true InputReplay <log> [frame-times.csv]
+public class InputReplay
+{
+    public static void main(String[] args)
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: InputReplay <log> [frame-times.csv]");
+            System.exit(1);
+        }
+        System.setProperty("java.awt.headless", "true");
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0]))))
+        {
+            if (in.readInt() != InputRecorder.MAGIC || in.readShort() != InputRecorder.VERSION)
+            {
+                System.out.println("Error: " + args[0] + " is not an input recording");
+                System.exit(1);
+            }
+            long seed = in.readLong();
+
+            Main main = new Main();
+            main.setRandomSeed(seed);
+            main.init();
+            main.initialised = true;
+
+            long decodes = ImageCache.getMisses();
+            long[] frameTimes = replay(main, in);
+            report(frameTimes);
+
+            // Only level loads should decode, each one its wall textures
+            System.out.println("Image decodes during replay: " + (ImageCache.getMisses() - decodes));
+            System.out.println("Image cache: " + ImageCache.getStatistics());
+            System.out.println("Shaded textures: " + ShadeTable.getShadedBytes() / 1024 + " KB");
+            if (args.length > 1)
+            {
+                writeCsv(args[1], frameTimes);
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: could not read " + args[0] + ": " + e.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    // Feeds every record to the game, returns the nanoseconds each tick took
+    private static long[] replay(GameEngine game, DataInputStream in) throws IOException
+    {
+        long[] frameTimes = new long[1024];
+        int frames = 0;
+
+        while (true)
+        {
+            int opcode = in.read();
+            if (opcode < 0)
+                break;
+
+            switch (opcode)
+            {
+            case InputRecorder.TICK:
+                long passedTime = in.readShort();
+                long start = System.nanoTime();
+                game.runHeadlessFrame(passedTime);
+                if (frames == frameTimes.length)
+                {
+                    frameTimes = Arrays.copyOf(frameTimes, frames * 2);
+                }
+                frameTimes[frames++] = System.nanoTime() - start;
+                break;
+            case InputRecorder.KEY:
+                int keyCode = in.readShort();
+                game.handleKey(keyCode, in.readByte() != 0);
+                break;
+            case InputRecorder.LOOK:
+                int deltaX = in.readShort();
+                game.handleLook(deltaX, in.readShort());
+                break;
+            case InputRecorder.CLICK:
+                int x = in.readShort();
+                int y = in.readShort();
+                game.handleClick(x, y, in.readByte());
+                break;
+            default:
+                throw new IOException("unknown record " + opcode);
+            }
+        }
+        return Arrays.copyOf(frameTimes, frames);
+    }
+
+    // Prints the frame-time distribution
+    private static void report(long[] frameTimes)
+    {
+        if (frameTimes.length == 0)
+        {
+            System.out.println("No ticks recorded");
+            return;
+        }
+
+        long[] sorted = frameTimes.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long time : sorted)
+        {
+            total += time;
+        }
+
+        System.out.println("Ticks: " + sorted.length);
+        System.out.printf("Mean:  %.3f ms%n", total / 1e6 / sorted.length);
+        System.out.printf("p50:   %.3f ms%n", percentile(sorted, 0.50) / 1e6);
+        System.out.printf("p90:   %.3f ms%n", percentile(sorted, 0.90) / 1e6);
+        System.out.printf("p99:   %.3f ms%n", percentile(sorted, 0.99) / 1e6);
+        System.out.printf("Max:   %.3f ms%n", sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static long percentile(long[] sorted, double fraction)
+    {
+        int index = (int)Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+    private static void writeCsv(String filename, long[] frameTimes) throws IOException
+    {
+        try (PrintWriter out = new PrintWriter(new FileWriter(filename)))
+        {
+            out.println("tick,nanos");
+            for (int i = 0; i < frameTimes.length; i++)
+            {
+                out.println(i + "," + frameTimes[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+import java.awt.image.BufferedImage;
+import java.lang.foreign.Arena;
+
+// Times the kernels on the work the game gives them. Shading only runs when
+// ShadeTable prebuilds the shaded copies of a whole image, so it is timed
+// through ShadeTable.shade, copies in and out included, for the off-heap
+// wall sheet at full size and at a far mip level and for one enemy frame.
+// Particles are timed on the kernel passes of one ParticleSystem.update
+// over a full pool. Each row runs the lookup table ShadeTable used before
+// the kernels, the scalar kernels and the ones Kernels.get() selected,
+// after checking that all give the same results.
+//
+// Usage: java [--add-modules jdk.incubator.vector] KernelBenchmark [seconds per test]
+public class KernelBenchmark
+{
+    private static final int WALL_SHEET_WIDTH = 5 * 128;
+    private static final int WALL_SHEET_HEIGHT = 128;
+    private static final int FAR_MIP = 3;
+    private static final int ENEMY_FRAME = 72;
+    private static final int PARTICLES = 32768;
+
+    // Keeps results alive so the JIT cannot drop the work
+    private static long sink = 0;
+
+    // The 32 x 256 channel table ShadeTable shaded with before the kernels
+    private static class TableKernels extends Kernels
+    {
+        private final int[][] table = new int[ShadeTable.LEVELS][256];
+
+        TableKernels()
+        {
+            for (int level = 0; level < ShadeTable.LEVELS; level++)
+            {
+                for (int value = 0; value < 256; value++)
+                {
+                    table[level][value] = (value * level + (ShadeTable.LEVELS - 1) / 2) / (ShadeTable.LEVELS - 1);
+                }
+            }
+        }
+
+        @Override public String getName()
+        {
+            return "table";
+        }
+
+        @Override public void shade(int[] argb, int count, int level)
+        {
+            int[] row = table[level];
+            for (int i = 0; i < count; i++)
+            {
+                int pixel = argb[i];
+                argb[i] = (pixel & 0xFF000000) | (row[(pixel >> 16) & 0xFF] << 16) | (row[(pixel >> 8) & 0xFF] << 8) |
+                          row[pixel & 0xFF];
+            }
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        Kernels table = new TableKernels();
+        Kernels scalar = Kernels.scalar();
+        Kernels selected = Kernels.get();
+        System.out.println("Selected kernels: " + selected.getName());
+        if (!check(table, scalar) || !check(scalar, selected))
+        {
+            System.out.println("Error: the kernels do not all give the same results");
+            System.exit(1);
+        }
+
+        System.out.printf("%-30s %11s %11s %11s %8s%n", "microseconds per", table.getName(), scalar.getName(),
+                          selected.getName(), "speedup");
+        try (Arena arena = Arena.ofConfined())
+        {
+            BufferedImage sheet = image(WALL_SHEET_WIDTH, WALL_SHEET_HEIGHT, BufferedImage.TYPE_INT_RGB);
+            OffHeapTexture[] wall = MipMap.buildChain(arena, OffHeapTexture.copyOf(arena, sheet), FAR_MIP + 1);
+            compareShade("shaded wall sheet, mip 0", wall[0], table, scalar, selected, seconds);
+            compareShade("shaded wall sheet, mip " + FAR_MIP, wall[FAR_MIP], table, scalar, selected, seconds);
+        }
+        BufferedImage enemy = image(ENEMY_FRAME, ENEMY_FRAME, BufferedImage.TYPE_INT_ARGB);
+        compareShade("shaded enemy frame", enemy, table, scalar, selected, seconds);
+        compareParticles(scalar, selected, seconds);
+        System.exit(0);
+    }
+
+    // source is an OffHeapTexture or a BufferedImage, the two kinds ShadeTable shades
+    private static void compareShade(String name, Object source, Kernels table, Kernels scalar, Kernels selected,
+                                     double seconds)
+    {
+        double tableTime = timeShade(table, source, seconds);
+        double scalarTime = timeShade(scalar, source, seconds);
+        double selectedTime = timeShade(selected, source, seconds);
+        System.out.printf("%-30s %11.1f %11.1f %11.1f %7.2fx%n", name, tableTime / 1000, scalarTime / 1000,
+                          selectedTime / 1000, scalarTime / selectedTime);
+    }
+
+    // Nanoseconds per shaded copy, after a warm up of the same length
+    private static double timeShade(Kernels kernels, Object source, double seconds)
+    {
+        for (int pass = 0; pass < 2; pass++)
+        {
+            long calls = 0;
+            long start = System.nanoTime();
+            long end = start + (long)(seconds * 1e9);
+            long now = start;
+            while (now < end)
+            {
+                for (int n = 0; n < 10; n++)
+                {
+                    int level = (int)(calls++ % (ShadeTable.LEVELS - 1));
+                    BufferedImage shaded = source instanceof OffHeapTexture
+                                               ? ShadeTable.shade((OffHeapTexture)source, level, kernels)
+                                               : ShadeTable.shade((BufferedImage)source, level, kernels);
+                    sink += shaded.getRGB(n, n);
+                }
+                now = System.nanoTime();
+            }
+            if (pass == 1)
+                return (double)(now - start) / calls;
+        }
+        return 0;
+    }
+
+    private static void compareParticles(Kernels scalar, Kernels selected, double seconds)
+    {
+        double scalarTime = timeParticles(scalar, seconds);
+        double selectedTime = timeParticles(selected, seconds);
+        System.out.printf("%-30s %11s %11.1f %11.1f %7.2fx%n", "particle update, " + PARTICLES, "-",
+                          scalarTime / 1000, selectedTime / 1000, scalarTime / selectedTime);
+    }
+
+    // Nanoseconds per update, running the passes in ParticleSystem.update's order
+    private static double timeParticles(Kernels kernels, double seconds)
+    {
+        float[] x = new float[PARTICLES], y = new float[PARTICLES], z = new float[PARTICLES];
+        float[] velocityX = new float[PARTICLES], velocityY = new float[PARTICLES];
+        float[] velocityZ = new float[PARTICLES], life = new float[PARTICLES];
+        for (int i = 0; i < PARTICLES; i++)
+        {
+            velocityX[i] = (i % 97) - 48;
+            velocityY[i] = (i % 89) - 44;
+            velocityZ[i] = (i % 13) * 4;
+            life[i] = 1000;
+        }
+        float step = 1 / 60f;
+
+        for (int pass = 0; pass < 2; pass++)
+        {
+            long calls = 0;
+            long start = System.nanoTime();
+            long end = start + (long)(seconds * 1e9);
+            long now = start;
+            while (now < end)
+            {
+                for (int n = 0; n < 100; n++)
+                {
+                    kernels.integrate(x, velocityX, PARTICLES, step);
+                    kernels.integrate(y, velocityY, PARTICLES, step);
+                    kernels.add(velocityZ, PARTICLES, -(ParticleSystem.GRAVITY * step));
+                    kernels.integrate(z, velocityZ, PARTICLES, step);
+                    kernels.add(life, PARTICLES, -step);
+                    calls++;
+                }
+                now = System.nanoTime();
+            }
+            sink += (long)(x[PARTICLES / 2] + z[PARTICLES / 3]);
+            if (pass == 1)
+                return (double)(now - start) / calls;
+        }
+        return 0;
+    }
+
+    // Both kernel sets must agree exactly, including on lengths that leave a tail
+    private static boolean check(Kernels expected, Kernels actual)
+    {
+        for (int size : new int[] {WALL_SHEET_WIDTH * WALL_SHEET_HEIGHT, ENEMY_FRAME * ENEMY_FRAME, 77})
+        {
+            int[] a = pixels(size);
+            for (int level = 0; level < ShadeTable.LEVELS; level++)
+            {
+                int[] x = a.clone();
+                int[] y = a.clone();
+                expected.shade(x, size, level);
+                actual.shade(y, size, level);
+                if (!java.util.Arrays.equals(x, y))
+                    return false;
+            }
+
+            float[] p = new float[size], q = new float[size], v = new float[size];
+            for (int i = 0; i < size; i++)
+            {
+                v[i] = i * 0.37f - 11;
+            }
+            expected.integrate(p, v, size, 0.016f);
+            actual.integrate(q, v, size, 0.016f);
+            expected.add(p, size, -2.5f);
+            actual.add(q, size, -2.5f);
+            if (!java.util.Arrays.equals(p, q))
+                return false;
+        }
+        return true;
+    }
+
+    private static BufferedImage image(int width, int height, int type)
+    {
+        BufferedImage image = new BufferedImage(width, height, type);
+        image.setRGB(0, 0, width, height, pixels(width * height), 0, width);
+        return image;
+    }
+
+    // Opaque and transparent pixels covering every channel value
+    private static int[] pixels(int size)
+    {
+        int[] pixels = new int[size];
+        int state = 0x2545F491;
+        for (int i = 0; i < size; i++)
+        {
+            state ^= state << 13;
+            state ^= state >>> 17;
+            state ^= state << 5;
+            pixels[i] = (i % 5 == 0 ? 0 : 0xFF000000) | (state & 0xFFFFFF);
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,82 @@
+// Data-parallel inner loops shared by the renderer and the particle
+// system. This class holds the plain scalar versions. When the JVM runs
+// with --add-modules jdk.incubator.vector, and VectorKernels (under
+// vector/) was compiled in, get() returns that SIMD version instead. The
+// choice is made once at startup, and both produce identical results.
+public class Kernels
+{
+    private static final Kernels selected = select();
+
+    // Dividing by LEVELS - 1 in shade is a multiply and shift,
+    // ceil(2^20 / 31) is exact for every channel value times level
+    static final int SHADE_SHIFT = 20;
+    static final int SHADE_RECIPROCAL = ((1 << SHADE_SHIFT) + ShadeTable.LEVELS - 2) / (ShadeTable.LEVELS - 1);
+    static final int SHADE_ROUND = (ShadeTable.LEVELS - 1) / 2;
+
+    // The kernels in use
+    public static Kernels get()
+    {
+        return selected;
+    }
+
+    // The scalar kernels, whatever get() chose
+    public static Kernels scalar()
+    {
+        return new Kernels();
+    }
+
+    private static Kernels select()
+    {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+            return new Kernels();
+        try
+        {
+            return (Kernels)Class.forName("VectorKernels").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e)
+        {
+            return new Kernels();
+        }
+    }
+
+    public String getName()
+    {
+        return "scalar";
+    }
+
+    // Darkens count ARGB pixels in place to ShadeTable level out of
+    // ShadeTable.LEVELS - 1, rounding to nearest. Alpha is kept.
+    public void shade(int[] argb, int count, int level)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            argb[i] = shadePixel(argb[i], level);
+        }
+    }
+
+    static int shadePixel(int pixel, int level)
+    {
+        int r = ((((pixel >> 16) & 0xFF) * level + SHADE_ROUND) * SHADE_RECIPROCAL) >>> SHADE_SHIFT;
+        int g = ((((pixel >> 8) & 0xFF) * level + SHADE_ROUND) * SHADE_RECIPROCAL) >>> SHADE_SHIFT;
+        int b = (((pixel & 0xFF) * level + SHADE_ROUND) * SHADE_RECIPROCAL) >>> SHADE_SHIFT;
+        return (pixel & 0xFF000000) | (r << 16) | (g << 8) | b;
+    }
+
+    // position[i] += velocity[i] * step for the first count entries
+    public void integrate(float[] position, float[] velocity, int count, float step)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            position[i] += velocity[i] * step;
+        }
+    }
+
+    // values[i] += amount for the first count entries
+    public void add(float[] values, int count, float amount)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            values[i] += amount;
+        }
+    }
+}
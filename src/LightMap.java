@@ -0,0 +1,224 @@
+// Light level per map tile. Light from glowing wall panels is baked when a
+// level loads by flooding outwards through the open tiles, so it bends
+// round corners and fades with every step. A few short lived point lights
+// (muzzle flashes, impacts) are added on top each frame. Walls and sprites
+// read the result while they are shaded.
+public class LightMap
+{
+    // Light level of an unlit tile, 1 is the full texture brightness, so
+    // unlit tiles keep the old look and lights only ever brighten. MAX_LIGHT is
+    // the light next to the exit hatch, no tile is brighter and ShadeTable only
+    // prebuilds shades up to it.
+    public static final float AMBIENT = 1.0f;
+    public static final float MAX_LIGHT = 2.0f;
+
+    // Light added next to each wall type, 3 has light strips and 5 is the lit exit hatch
+    private static final float[] WALL_EMISSION = {0, 0, 0, 0.9f, 0, 1.0f, 0, 0, 0};
+    private static final float FALLOFF = 0.72f;
+
+    private static final int MAX_LIGHTS = 16;
+
+    private GameMap map;
+    private final int tileSize;
+    private final int width, height;
+    private final float[] baked;
+    private final float[] light;
+
+    // Dynamic point lights
+    private final double[] lightX = new double[MAX_LIGHTS];
+    private final double[] lightY = new double[MAX_LIGHTS];
+    private final float[] lightIntensity = new float[MAX_LIGHTS];
+    private final float[] lightRadius = new float[MAX_LIGHTS];
+    private final float[] lightLife = new float[MAX_LIGHTS];
+    private final float[] lightDuration = new float[MAX_LIGHTS];
+    private int lightCount = 0;
+
+    // Flood fill queue
+    private final int[] queue;
+
+    public LightMap(GameMap map, int tileSize)
+    {
+        this.map = map;
+        this.tileSize = tileSize;
+        this.width = map.getWidth();
+        this.height = map.getHeight();
+        baked = new float[width * height];
+        light = new float[width * height];
+        queue = new int[width * height * 4];
+    }
+
+    public void setMap(GameMap map)
+    {
+        this.map = map;
+    }
+
+    // Bakes the static light of the current map, call after loading a level
+    public void bake()
+    {
+        for (int i = 0; i < baked.length; i++)
+        {
+            baked[i] = AMBIENT;
+        }
+
+        // Seed the open tiles next to glowing walls
+        int head = 0, tail = 0;
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                if (!map.isWall(x, y))
+                    continue;
+                float emission = WALL_EMISSION[Math.min(map.getWallType(x, y), WALL_EMISSION.length - 1)];
+                if (emission == 0)
+                    continue;
+
+                float level = Math.min(MAX_LIGHT, AMBIENT + emission);
+                tail = seed(x + 1, y, level, tail);
+                tail = seed(x - 1, y, level, tail);
+                tail = seed(x, y + 1, level, tail);
+                tail = seed(x, y - 1, level, tail);
+            }
+        }
+
+        // Spread through open tiles, keeping the brightest path
+        while (head < tail)
+        {
+            int tile = queue[head++];
+            float next = AMBIENT + (baked[tile] - AMBIENT) * FALLOFF;
+            if (next - AMBIENT < 0.02f)
+                continue;
+
+            int x = tile % width;
+            int y = tile / width;
+            tail = seed(x + 1, y, next, tail);
+            tail = seed(x - 1, y, next, tail);
+            tail = seed(x, y + 1, next, tail);
+            tail = seed(x, y - 1, next, tail);
+        }
+
+        // Walls take the light of their brightest open neighbour
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                if (map.isWall(x, y))
+                {
+                    float neighbour = Math.max(Math.max(bakedAt(x + 1, y), bakedAt(x - 1, y)),
+                                               Math.max(bakedAt(x, y + 1), bakedAt(x, y - 1)));
+                    baked[y * width + x] = Math.max(AMBIENT, neighbour);
+                }
+            }
+        }
+
+        lightCount = 0;
+        System.arraycopy(baked, 0, light, 0, baked.length);
+    }
+
+    private int seed(int x, int y, float level, int tail)
+    {
+        if (x < 0 || y < 0 || x >= width || y >= height || map.isWall(x, y))
+            return tail;
+        int tile = y * width + x;
+        if (level <= baked[tile] || tail == queue.length)
+            return tail;
+        baked[tile] = level;
+        queue[tail] = tile;
+        return tail + 1;
+    }
+
+    private float bakedAt(int x, int y)
+    {
+        if (x < 0 || y < 0 || x >= width || y >= height || map.isWall(x, y))
+            return 0;
+        return baked[y * width + x];
+    }
+
+    // Adds a point light at a world position that fades out over seconds.
+    // radius is in tiles. When all slots are used the dimmest light is replaced.
+    public void addLight(double x, double y, double intensity, double radius, double seconds)
+    {
+        int slot = lightCount;
+        if (lightCount == MAX_LIGHTS)
+        {
+            slot = 0;
+            for (int i = 1; i < lightCount; i++)
+            {
+                if (lightIntensity[i] * lightLife[i] < lightIntensity[slot] * lightLife[slot])
+                    slot = i;
+            }
+        }
+        else
+        {
+            lightCount++;
+        }
+
+        lightX[slot] = x;
+        lightY[slot] = y;
+        lightIntensity[slot] = (float)intensity;
+        lightRadius[slot] = (float)radius;
+        lightLife[slot] = (float)seconds;
+        lightDuration[slot] = (float)seconds;
+    }
+
+    // Ages the point lights and rebuilds the light grid for this frame
+    public void update(double dt)
+    {
+        System.arraycopy(baked, 0, light, 0, baked.length);
+
+        int i = 0;
+        while (i < lightCount)
+        {
+            lightLife[i] -= (float)dt;
+            if (lightLife[i] <= 0)
+            {
+                int last = --lightCount;
+                lightX[i] = lightX[last];
+                lightY[i] = lightY[last];
+                lightIntensity[i] = lightIntensity[last];
+                lightRadius[i] = lightRadius[last];
+                lightLife[i] = lightLife[last];
+                lightDuration[i] = lightDuration[last];
+                continue;
+            }
+            accumulate(i);
+            i++;
+        }
+    }
+
+    private void accumulate(int i)
+    {
+        double centreX = lightX[i] / tileSize;
+        double centreY = lightY[i] / tileSize;
+        float radius = lightRadius[i];
+        float intensity = lightIntensity[i] * lightLife[i] / lightDuration[i];
+
+        int minX = Math.max(0, (int)(centreX - radius));
+        int maxX = Math.min(width - 1, (int)(centreX + radius));
+        int minY = Math.max(0, (int)(centreY - radius));
+        int maxY = Math.min(height - 1, (int)(centreY + radius));
+        for (int y = minY; y <= maxY; y++)
+        {
+            for (int x = minX; x <= maxX; x++)
+            {
+                double dx = x + 0.5 - centreX;
+                double dy = y + 0.5 - centreY;
+                double distance = Math.sqrt(dx * dx + dy * dy);
+                if (distance >= radius)
+                    continue;
+
+                int tile = y * width + x;
+                light[tile] = Math.min(MAX_LIGHT, light[tile] + intensity * (float)(1 - distance / radius));
+            }
+        }
+    }
+
+    // Light level of the tile containing a world position
+    public float sample(double x, double y)
+    {
+        int tileX = (int)(x / tileSize);
+        int tileY = (int)(y / tileSize);
+        if (tileX < 0 || tileY < 0 || tileX >= width || tileY >= height)
+            return AMBIENT;
+        return light[tileY * width + tileX];
+    }
+}
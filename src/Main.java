@@ -45,6 +45,7 @@ public class Main extends GameEngine
     private GameMap gameMap;
     private Player player;
     private RayCaster raycaster;
+    private int rayInterleave = 1;
     private List<Enemy> enemies = new ArrayList<>();
     private List<HealthItem> healthItems = new ArrayList<>();
     private List<WeaponItem> weaponItems = new ArrayList<>();
@@ -57,6 +58,24 @@ public class Main extends GameEngine
     private GraphicsQuality quality = GraphicsQuality.LOW;
     private static final double ENEMYWIDTH = 3.23;
     private static final double SHOTGUNANGLE = Math.toRadians(15);
+    private static final int SHOTGUNPELLETS = 8;
+    private Hitscan hitscan;
+    private ProjectileSystem projectiles;
+    private static final int MAX_PROJECTILES = 4096;
+    private ParticleSystem particles;
+    private static final int MAX_PARTICLES = 32768;
+    private LightMap lightMap;
+    private Hud hud;
+    private static final double FOV = Math.toRadians(60);
+
+    // Profiler phases
+    private static final int PHASE_UPDATE = FrameProfiler.register("update");
+    private static final int PHASE_MINIMAP = FrameProfiler.register("minimap");
+    private static final int PHASE_SPRITE_SORT = FrameProfiler.register("sprite sort");
+    private static final int PHASE_SPRITES = FrameProfiler.register("sprites");
+    private static final int PHASE_PROJECTILES = FrameProfiler.register("projectiles");
+    private static final int PHASE_PARTICLES = FrameProfiler.register("particles");
+    private static final int PHASE_HUD = FrameProfiler.register("hud");
 
     // Window size
     private int width = 1024;
@@ -81,7 +100,7 @@ public class Main extends GameEngine
     private static final AudioClip soundLazer3 = loadAudio("assets/audio/SoundLazer3.wav");
     private static final AudioClip soundLazerHit = loadAudio("assets/audio/SoundLazerHit.wav");
     private static final AudioClip soundPlayerInjured = loadAudio("assets/audio/SoundPlayerInjured.wav");
-    private static final AudioClip soundPlayerWalking = loadAudio("assets/audio/SoundPlayerWalking.wav");
+    private static final AudioStream soundPlayerWalking = loadAudioStream("assets/audio/SoundPlayerWalking.wav");
     private static final AudioClip soundReloadRifle = loadAudio("assets/audio/SoundReloadRifle.wav");
     private static final AudioClip soundReloadShotgun = loadAudio("assets/audio/SoundReloadShotgun.wav");
     private static final AudioClip soundWinDoorOpen = loadAudio("assets/audio/SoundWinDoorOpen.wav");
@@ -167,16 +186,57 @@ public class Main extends GameEngine
     {
         Object obj;
         double distance;
-        RenderableObject(Object obj, double distance)
+    }
+
+    // Sprites to draw this frame, the entries are reused from frame to frame
+    private final List<RenderableObject> toRender = new ArrayList<>();
+    private final List<RenderableObject> renderablePool = new ArrayList<>();
+
+    private void addRenderable(Object obj, double distance)
+    {
+        if (renderablePool.size() == toRender.size())
         {
-            this.obj = obj;
-            this.distance = distance;
+            renderablePool.add(new RenderableObject());
         }
+        RenderableObject ro = renderablePool.get(toRender.size());
+        ro.obj = obj;
+        ro.distance = distance;
+        toRender.add(ro);
     }
 
+    // Options: --seed <number> fixes the session's random seed,
+    // --record <file> records input for InputReplay,
+    // --interleave <2|4> casts only half or a quarter of the wall rays each frame,
+    // --frametimes <directory|off> sets where frame time histograms are kept
     public static void main(String[] args)
     {
         Main main = new Main();
+        String recordFile = null;
+        for (int i = 0; i + 1 < args.length; i++)
+        {
+            if (args[i].equals("--seed"))
+            {
+                main.setRandomSeed(Long.parseLong(args[++i]));
+            }
+            else if (args[i].equals("--record"))
+            {
+                recordFile = args[++i];
+            }
+            else if (args[i].equals("--interleave"))
+            {
+                main.rayInterleave = Integer.parseInt(args[++i]);
+            }
+            else if (args[i].equals("--frametimes"))
+            {
+                String directory = args[++i];
+                main.setFrameTimeDirectory(directory.equals("off") ? null : directory);
+            }
+        }
+        if (recordFile != null)
+        {
+            main.startRecording(recordFile);
+        }
+
         try
         {
             SwingUtilities.invokeAndWait(() -> main.setupWindow(main.width, main.height));
@@ -186,7 +246,7 @@ public class Main extends GameEngine
             System.err.println("Error setting up window: " + e.getMessage());
             System.exit(1);
         }
-        main.init();
+        // createGame runs init, once, the same as InputReplay does before the first tick
         createGame(main, 60);
     }
 
@@ -260,21 +320,39 @@ public class Main extends GameEngine
                                 () -> { currentState = GameState.MAIN_MENU; });
 
         // hide the mouse
-        BufferedImage cursorImg = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
-        blankCursor = Toolkit.getDefaultToolkit().createCustomCursor(cursorImg, new Point(0, 0), "blank cursor");
         defaultCursor = Cursor.getDefaultCursor();
+        blankCursor = defaultCursor;
+        if (!GraphicsEnvironment.isHeadless())
+        {
+            BufferedImage cursorImg = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+            blankCursor = Toolkit.getDefaultToolkit().createCustomCursor(cursorImg, new Point(0, 0), "blank cursor");
+        }
 
         // initialise the game map
         gameMap = new GameMap();
         numOfLevels = 3;
         currentLevel = 0; // start at 0, and will auto increment to level 1
+        lightMap = new LightMap(gameMap, TILE_SIZE);
+        hud = new Hud();
+        projectiles = new ProjectileSystem(MAX_PROJECTILES, gameMap, TILE_SIZE, gameAsset.getMissileSprite());
+        particles = new ParticleSystem(MAX_PARTICLES, gameMap, TILE_SIZE, getRandomSeed());
+        projectiles.setParticles(particles);
+        projectiles.setLightMap(lightMap);
+        Enemy.setParticles(particles);
+        Enemy.setLightMap(lightMap);
         advanceLevel(); // sets up map
         isAtEndTile = false;
 
+        // Muffle positional sounds behind walls
+        AudioMixer.getInstance().setOcclusionMap(gameMap, TILE_SIZE);
+
         setWindowSize(width, height);
 
         // Initialize ray caster and associated objects
         raycaster = new RayCaster(gameMap, TILE_SIZE, gameAsset);
+        raycaster.setInterleave(rayInterleave);
+        raycaster.setLightMap(lightMap);
+        hitscan = new Hitscan(gameMap, TILE_SIZE, ENEMYWIDTH);
         lazerRifleSprite = gameAsset.getLazerRifle();
         lazerShotgunSprite = gameAsset.getLazerShotgun();
         lazerRiflePickup = gameAsset.getLazerRiflePickup();
@@ -299,6 +377,7 @@ public class Main extends GameEngine
 
     @Override public void update(double dt)
     {
+        profileBegin(PHASE_UPDATE);
         if (currentState == GameState.VICTORY) {
             betweenTimer += dt;
             if (betweenTimer > betweenLength+2) {
@@ -314,11 +393,27 @@ public class Main extends GameEngine
                 currentState = GameState.PLAYING;
             }
         }
+        if (currentState != GameState.PLAYING)
+        {
+            stopAudioLoop(soundPlayerWalking);
+        }
         // Update Enemies
         if (currentState == GameState.PLAYING)
         {
             player.setDirection(left, right, up, down);
             player.update(this, dt);
+            setAudioListener(player.getX(), player.getY(), player.getAngle());
+
+            // Footsteps loop while the player is moving
+            boolean moving = left || right || up || down;
+            if (moving && !soundPlayerWalking.isPlaying())
+            {
+                startAudioLoop(soundPlayerWalking, -6);
+            }
+            else if (!moving && soundPlayerWalking.isPlaying())
+            {
+                stopAudioLoop(soundPlayerWalking);
+            }
             player.getCurrentWeapon().update(dt);
             Enemy toRemove = null;
             for (Enemy enemy : enemies)
@@ -331,6 +426,21 @@ public class Main extends GameEngine
             }
             enemies.remove(toRemove);
 
+            // Move enemy bolts, the player can dodge them
+            profileBegin(PHASE_PROJECTILES);
+            int boltDamage = projectiles.update(dt, player);
+            if (boltDamage > 0)
+            {
+                player.takeDamage(boltDamage);
+                playAudio(soundPlayerInjured);
+            }
+            profileEnd(PHASE_PROJECTILES);
+
+            profileBegin(PHASE_PARTICLES);
+            particles.update(dt);
+            profileEnd(PHASE_PARTICLES);
+            lightMap.update(dt);
+
             // Check health item pickup
             for (HealthItem healthItem : healthItems)
             {
@@ -378,16 +488,17 @@ public class Main extends GameEngine
                 isAtEndTile = false;
             }
         }
+        profileEnd(PHASE_UPDATE);
     }
 
     @Override public void paintComponent()
     {
         if (currentState == GameState.VICTORY) {
-            getFrame().setCursor(defaultCursor);
+            setCursor(defaultCursor);
             saveCurrentTransform();
             changeBackgroundColor(black);
             clearBackground(width, height);
-            drawImage(menuBackground, 0, 0, width, height);
+            drawScaledImage(menuBackground, 0, 0, width, height);
             drawImage(gameAsset.getEscapePodSprite(), escapePodX, escapePodY, 3, -5); // draw the escape pod
             changeColor(white);
             drawCenteredText( 100, "You escaped the Alderaan.", "Arial", 40, Font.BOLD);
@@ -398,7 +509,7 @@ public class Main extends GameEngine
             restoreLastTransform();
         }
         else if(currentState == GameState.BETWEENLEVELS) {
-            getFrame().setCursor(defaultCursor);
+            setCursor(defaultCursor);
             saveCurrentTransform();
             changeBackgroundColor(black);
             clearBackground(width, height);
@@ -408,29 +519,29 @@ public class Main extends GameEngine
         }
         else if (currentState == GameState.MAIN_MENU)
         {
-            getFrame().setCursor(defaultCursor);
+            setCursor(defaultCursor);
             drawMainMenu();
         }
         else if (currentState == GameState.HOW_TO_PLAY)
         {
-            getFrame().setCursor(defaultCursor);
-            drawImage(menuBackground, 0, 0, width, height);
+            setCursor(defaultCursor);
+            drawScaledImage(menuBackground, 0, 0, width, height);
             drawHowToPlay();
         }
         else if (currentState == GameState.SETTINGS)
         {
-            getFrame().setCursor(defaultCursor);
+            setCursor(defaultCursor);
             drawSettings();
         }
         else if (currentState == GameState.CREDITS)
         {
-            getFrame().setCursor(defaultCursor);
-            drawImage(menuBackground, 0, 0, width, height);
+            setCursor(defaultCursor);
+            drawScaledImage(menuBackground, 0, 0, width, height);
             drawCredits();
         }
         else if (currentState == GameState.PLAYING)
         {
-            getFrame().setCursor(blankCursor);
+            setCursor(blankCursor);
             changeBackgroundColor(black);
             clearBackground(width(), height());
 
@@ -442,28 +553,9 @@ public class Main extends GameEngine
 
             raycaster.draw(this, playerX, playerY, playerAngle, verticalLookOffset);
 
-            // --- MINIMAP OVERLAY ---
-            final int MINI_MAP_SIZE = 128;
-            int miniTileSize = MINI_MAP_SIZE / gameMap.getWidth();
-
-            // Position minimap at top-right corner with some padding
-            int offsetX = width() - MINI_MAP_SIZE - 10; // 10 px from right
-            int offsetY = 10;                           // 10 px from top
-
-            // Draw minimap border (outside blackout)
-            changeColor(white);
-            drawRectangle(offsetX - 1, offsetY - 1, MINI_MAP_SIZE + 2, MINI_MAP_SIZE + 2);
-
-            // Optionally draw minimap background inside border
-            changeColor(new Color(20, 20, 20, 180)); // semi-transparent dark fill
-            drawSolidRectangle(offsetX, offsetY, MINI_MAP_SIZE, MINI_MAP_SIZE);
-
-            // Draw the minimap tiles, blacking out those outside vision radius
-            int visionRadius = 5;
-            gameMap.draw(this, miniTileSize, offsetX, offsetY, player.getX(), player.getY(), visionRadius, TILE_SIZE);
-
             // Render our objects
-            List<RenderableObject> toRender = new ArrayList<>();
+            profileBegin(PHASE_SPRITE_SORT);
+            toRender.clear();
 
             for (HealthItem healthItem : healthItems)
             {
@@ -472,7 +564,7 @@ public class Main extends GameEngine
                     double dx = healthItem.getX() - player.getX();
                     double dy = healthItem.getY() - player.getY();
                     double distance = Math.sqrt(dx * dx + dy * dy);
-                    toRender.add(new RenderableObject(healthItem, distance));
+                    addRenderable(healthItem, distance);
                 }
             }
 
@@ -481,7 +573,7 @@ public class Main extends GameEngine
                 double dx = enemy.getX() - player.getX();
                 double dy = enemy.getY() - player.getY();
                 double distance = Math.sqrt(dx * dx + dy * dy);
-                toRender.add(new RenderableObject(enemy, distance));
+                addRenderable(enemy, distance);
             }
 
             for (WeaponItem weaponItem : weaponItems)
@@ -491,38 +583,46 @@ public class Main extends GameEngine
                     double dx = weaponItem.getX() - player.getX();
                     double dy = weaponItem.getY() - player.getY();
                     double distance = Math.sqrt(dx * dx + dy * dy);
-                    toRender.add(new RenderableObject(weaponItem, distance));
+                    addRenderable(weaponItem, distance);
                 }
             }
 
             // Sort by distance (we want farther objects spawning first)
             toRender.sort((a, b) -> Double.compare(b.distance, a.distance));
+            projectiles.prepareDraw(player, FOV);
+            profileEnd(PHASE_SPRITE_SORT);
 
             // Render objects
+            profileBegin(PHASE_SPRITES);
+            double[] rayDistances = raycaster.getRayDistancesArray();
+            int numRays = raycaster.getNumRays();
             for (RenderableObject ro : toRender)
             {
+                // Bolts farther away than this object go behind it
+                projectiles.drawUntil(this, player, rayDistances, numRays, FOV, ro.distance);
                 if (ro.obj instanceof HealthItem)
                 {
-                    ((HealthItem)ro.obj).render(this, player, raycaster.getRayDistancesArray());
+                    ((HealthItem)ro.obj).render(this, player, rayDistances, numRays);
                 }
                 else if (ro.obj instanceof Enemy)
                 {
-                    ((Enemy)ro.obj).render(this, player, raycaster.getRayDistancesArray());
+                    ((Enemy)ro.obj).render(this, player, rayDistances, numRays);
                 }
                 else if (ro.obj instanceof WeaponItem)
                 {
-                    ((WeaponItem)ro.obj).render(this, player, raycaster.getRayDistancesArray());
+                    ((WeaponItem)ro.obj).render(this, player, rayDistances, numRays);
                 }
             }
+            projectiles.drawUntil(this, player, rayDistances, numRays, FOV, 0);
+            profileEnd(PHASE_SPRITES);
+
+            profileBegin(PHASE_PARTICLES);
+            particles.draw(this, player, rayDistances, numRays, FOV);
+            profileEnd(PHASE_PARTICLES);
 
             // Health bar on bottom left
-            changeColor(Color.gray);
-            drawSolidRectangle(10, height() - 50, 200, 20);
-            changeColor(green);
-            float healthPercentage = player.getHealthPercentage();
-            drawSolidRectangle(10, height() - 50, 200 * healthPercentage, 20);
-            changeColor(white);
-            drawText(220, height() - 30, player.getHealth() + "/" + player.getMaxHealth(), "Arial", 20);
+            profileBegin(PHASE_HUD);
+            hud.drawHealth(this, player);
 
             // Weapon Sprite
             Weapon currentWeapon = player.getCurrentWeapon();
@@ -532,35 +632,24 @@ public class Main extends GameEngine
                 {
                     if (Objects.equals(currentWeapon.getName(), "Laser Rifle"))
                     {
-                        drawImage(currentWeapon.getFlashFrame(), weaponX - (21 * 3.125), weaponY - (47 * 3.125), 400,
-                                  400);
+                        drawScaledImage(currentWeapon.getFlashFrame(), weaponX - (21 * 3.125), weaponY - (47 * 3.125),
+                                        400, 400);
                     }
                     else if (Objects.equals(currentWeapon.getName(), "Laser ShotGun"))
                     {
-                        drawImage(currentWeapon.getFlashFrame(), weaponX - (21 * 3.125), weaponY - (53 * 3.125), 400,
-                                  400);
+                        drawScaledImage(currentWeapon.getFlashFrame(), weaponX - (21 * 3.125), weaponY - (53 * 3.125),
+                                        400, 400);
                     }
                     else
                     {
-                        drawImage(currentWeapon.getFlashFrame(), weaponX - (19 * 3.125), weaponY - (54 * 3.125), 400,
-                                  400);
+                        drawScaledImage(currentWeapon.getFlashFrame(), weaponX - (19 * 3.125), weaponY - (54 * 3.125),
+                                        400, 400);
                     }
                 }
-                drawImage(currentWeapon.getSprite(), weaponX, weaponY, 400, 400);
+                drawScaledImage(currentWeapon.getSprite(), weaponX, weaponY, 400, 400);
             }
             // Weapon name and ammo count on bottom right
-            String weaponName = currentWeapon.getName();
-            changeColor(green);
-            drawText(width() - 120, height() - 70, weaponName, "Arial", 16);
-            if (currentWeapon.isUnlimitedAmmo())
-            {
-                drawText(width() - 100, height() - 10, "∞", "Arial", 60);
-            }
-            else
-            {
-                String ammoText = currentWeapon.getCurrentMagAmmo() + " / " + currentWeapon.getTotalAmmo();
-                drawText(width() - 120, height() - 20, ammoText, "Arial", 30);
-            }
+            hud.drawWeapon(this, currentWeapon);
 
             if (isAtEndTile)
             {
@@ -568,17 +657,15 @@ public class Main extends GameEngine
                 drawCenteredText(height() - 100, "Press F to Activate", "Arial", 20, Font.PLAIN);
             }
 
-            // Draw minimap border (outside blackout)
-            changeColor(white);
-            drawRectangle(offsetX - 1, offsetY - 1, MINI_MAP_SIZE + 2, MINI_MAP_SIZE + 2);
-
-            // Optionally draw minimap background inside border
-            changeColor(new Color(20, 20, 20, 180)); // semi-transparent dark fill
-            drawSolidRectangle(offsetX, offsetY, MINI_MAP_SIZE, MINI_MAP_SIZE);
+            profileEnd(PHASE_HUD);
 
-            // Draw the minimap tiles, blacking out those outside vision radius
-            visionRadius = 7;
-            gameMap.draw(this, miniTileSize, offsetX, offsetY, player.getX(), player.getY(), visionRadius, TILE_SIZE);
+            // Minimap at the top right, the baked layer with the tiles outside the vision radius blacked out
+            profileBegin(PHASE_MINIMAP);
+            int miniTileSize = Hud.MINI_MAP_SIZE / gameMap.getWidth();
+            int offsetX = width() - Hud.MINI_MAP_SIZE - 10; // 10 px from right
+            int offsetY = 10;                               // 10 px from top
+            int visionRadius = 7;
+            hud.drawMinimap(this, player, offsetX, offsetY, visionRadius, TILE_SIZE);
 
             // Draw player on minimap
             changeColor(white);
@@ -596,19 +683,76 @@ public class Main extends GameEngine
             {
                 enemy.drawOnMinimap(this, player);
             }
+            profileEnd(PHASE_MINIMAP);
             // Leave here so crosshair is drawn over everything
             player.draw(this);
         }
         else if (currentState == GameState.GAME_OVER)
         {
-            getFrame().setCursor(defaultCursor);
-            drawImage(gameOverBackground, 0, 0, width, height);
+            setCursor(defaultCursor);
+            drawScaledImage(gameOverBackground, 0, 0, width, height);
             changeColor(new Color(200, 200, 200));
             drawCenteredText(height / 2 + 100, "GAME OVER", "Arial", 50, Font.BOLD);
             drawCenteredText(height / 2 + 150, "Press Enter to restart", "Arial", 30, Font.PLAIN);
         }
     }
 
+    // Menus and the game over screen stay the same until there is input
+    @Override public boolean isAnimating()
+    {
+        return currentState == GameState.PLAYING || currentState == GameState.BETWEENLEVELS ||
+               currentState == GameState.VICTORY;
+    }
+
+    // Pauses to the menu when the window loses focus. Goes through the input
+    // queue like a real Escape so recordings replay the same way, the held
+    // movement keys are released first as their key up events will not arrive.
+    @Override public void focusLost()
+    {
+        if (currentState == GameState.PLAYING)
+        {
+            dispatchKey(KeyEvent.VK_W, false);
+            dispatchKey(KeyEvent.VK_A, false);
+            dispatchKey(KeyEvent.VK_S, false);
+            dispatchKey(KeyEvent.VK_D, false);
+            dispatchKey(KeyEvent.VK_ESCAPE, true);
+        }
+    }
+
+    @Override public String getStateName()
+    {
+        return currentState == null ? "" : currentState.name();
+    }
+
+    @Override public int getLevel()
+    {
+        return currentLevel;
+    }
+
+    @Override public int getLiveEnemyCount()
+    {
+        int alive = 0;
+        for (int i = 0; i < enemies.size(); i++)
+        {
+            if (enemies.get(i).isAlive())
+                alive++;
+        }
+        return alive;
+    }
+
+    @Override public int getRayCount()
+    {
+        return raycaster == null ? 0 : raycaster.getNumRays();
+    }
+
+    @Override public void setRayCount(int rays)
+    {
+        if (raycaster != null)
+        {
+            raycaster.setNumRays(rays);
+        }
+    }
+
     public void drawCenteredText(double y, String s, String font, int size, int style)
     {
         mGraphics.setFont(new Font(font, style, size));
@@ -620,7 +764,7 @@ public class Main extends GameEngine
 
     private void drawMainMenu()
     {
-        drawImage(menuBackground, 0, 0, width, height);
+        drawScaledImage(menuBackground, 0, 0, width, height);
 
         mGraphics.setFont(new Font("Arial", Font.BOLD, 60));
         FontMetrics metrics = mGraphics.getFontMetrics();
@@ -670,8 +814,7 @@ public class Main extends GameEngine
             drawText((double)this.mWidth / 8, startY + i * lineHeight, lines[i], "Arial", 20);
         }
         drawText((double)this.mWidth / 4 * 2, startY + 3 * lineHeight, "Press F at the doors like below:", "Arial", 20);
-        drawImage(subImage(loadImage("assets/visual/ScifiWall.png"), 512, 0, 128, 128), (double)this.mWidth / 4 * 2,
-                  startY + 4 * lineHeight);
+        drawImage(gameAsset.getDoorSprite(), (double)this.mWidth / 4 * 2, startY + 4 * lineHeight);
         drawText((double)this.mWidth / 4 * 2, startY + 5 * lineHeight + 128, "To advance to the next level", "Arial",
                  20);
         backButton.draw();
@@ -693,7 +836,7 @@ public class Main extends GameEngine
 
     private void drawSettings()
     {
-        drawImage(menuBackground, 0, 0, width, height);
+        drawScaledImage(menuBackground, 0, 0, width, height);
         changeColor(new Color(200, 200, 200));
         drawCenteredText(60, "Settings", "Arial", 40, Font.BOLD);
         // Draw difficulty label
@@ -724,9 +867,39 @@ public class Main extends GameEngine
 
     @Override public void keyPressed(KeyEvent e)
     {
+        dispatchKey(e.getKeyCode(), true);
+    }
+
+    @Override public void keyReleased(KeyEvent e)
+    {
+        dispatchKey(e.getKeyCode(), false);
+    }
+
+    // Handles key input, live or from a replay
+    @Override public void handleKey(int keyCode, boolean pressed)
+    {
+        if (pressed)
+        {
+            handleKeyPressed(keyCode);
+        }
+        else
+        {
+            handleKeyReleased(keyCode);
+        }
+    }
+
+    private void handleKeyPressed(int keyCode)
+    {
+        // F3 toggles the frame profiler in any state
+        if (keyCode == KeyEvent.VK_F3)
+        {
+            getProfiler().toggle();
+            return;
+        }
+
         if (currentState == GameState.PLAYING)
         {
-            switch (e.getKeyCode())
+            switch (keyCode)
             {
                 case KeyEvent.VK_ESCAPE:
                     currentState = GameState.MAIN_MENU;
@@ -759,19 +932,19 @@ public class Main extends GameEngine
                 }
                 break;
             default:
-                updateDirection(e, true);
+                updateDirection(keyCode, true);
                 break;
             }
         }
         else if (currentState == GameState.GAME_OVER)
         {
-            if (e.getKeyCode() == KeyEvent.VK_ENTER)
+            if (keyCode == KeyEvent.VK_ENTER)
             {
                 restartGame();
             }
         }
         else if (currentState == GameState.VICTORY) {
-            if (e.getKeyCode() == KeyEvent.VK_ENTER)
+            if (keyCode == KeyEvent.VK_ENTER)
             {
                 resetAnimation();
                 gameStarted = false;
@@ -780,11 +953,11 @@ public class Main extends GameEngine
         }
     }
 
-    @Override public void keyReleased(KeyEvent e)
+    private void handleKeyReleased(int keyCode)
     {
         if (currentState == GameState.PLAYING)
         {
-            switch (e.getKeyCode())
+            switch (keyCode)
             {
             case KeyEvent.VK_Q:
                 qPressed = false;
@@ -793,15 +966,15 @@ public class Main extends GameEngine
                 ePressed = false;
                 break;
             default:
-                updateDirection(e, false);
+                updateDirection(keyCode, false);
                 break;
             }
         }
     }
 
-    private void updateDirection(KeyEvent e, boolean pressed)
+    private void updateDirection(int keyCode, boolean pressed)
     {
-        switch (e.getKeyCode())
+        switch (keyCode)
         {
         case KeyEvent.VK_A -> left = pressed;
         case KeyEvent.VK_D -> right = pressed;
@@ -821,9 +994,6 @@ public class Main extends GameEngine
                 return;
             }
 
-            double sensitivityX = 0.002;
-            double sensitivityY = 0.5;
-
             int mouseX = e.getXOnScreen();
             int mouseY = e.getYOnScreen();
 
@@ -840,8 +1010,7 @@ public class Main extends GameEngine
             int deltaX = mouseX - lastMouseX;
             int deltaY = mouseY - lastMouseY;
 
-            player.rotate(deltaX * sensitivityX);
-            player.setVerticalLookOffset(player.getVerticalLookOffset() + deltaY * sensitivityY);
+            dispatchLook(deltaX, deltaY);
 
             if (robot != null)
             {
@@ -857,12 +1026,29 @@ public class Main extends GameEngine
             }
         }
     }
+    // Handles mouse look input, live or from a replay
+    @Override public void handleLook(int deltaX, int deltaY)
+    {
+        if (currentState == GameState.PLAYING && player != null)
+        {
+            double sensitivityX = 0.002;
+            double sensitivityY = 0.5;
+
+            player.rotate(deltaX * sensitivityX);
+            player.setVerticalLookOffset(player.getVerticalLookOffset() + deltaY * sensitivityY);
+        }
+    }
+
     @Override public void mouseClicked(MouseEvent e)
+    {
+        dispatchClick(e.getX(), e.getY(), e.getButton());
+    }
+
+    // Handles mouse clicks, live or from a replay
+    @Override public void handleClick(int mx, int my, int mouseButton)
     {
         if (currentState == GameState.MAIN_MENU)
         {
-            int mx = e.getX();
-            int my = e.getY();
             if (gameStarted) {
                 if (resumeButton.contains(mx, my)) {
                     resumeButton.action.run();
@@ -881,8 +1067,6 @@ public class Main extends GameEngine
 
         else if (currentState == GameState.HOW_TO_PLAY || currentState == GameState.CREDITS)
         {
-            int mx = e.getX();
-            int my = e.getY();
             if (backButton.contains(mx, my))
             {
                 backButton.action.run();
@@ -891,8 +1075,6 @@ public class Main extends GameEngine
 
         else if (currentState == GameState.SETTINGS)
         {
-            int mx = e.getX();
-            int my = e.getY();
             for (Button button : settingsButtons)
             {
                 if (button.contains(mx, my))
@@ -907,7 +1089,7 @@ public class Main extends GameEngine
             }
         }
 
-        else if (currentState == GameState.PLAYING && e.getButton() == MouseEvent.BUTTON1)
+        else if (currentState == GameState.PLAYING && mouseButton == MouseEvent.BUTTON1)
         {
             Weapon currentWeapon = player.getCurrentWeapon();
             if (currentWeapon.tryFire())
@@ -918,59 +1100,39 @@ public class Main extends GameEngine
                     playAudio(currentWeapon.getFireSound());
                 }
 
-                // Shooting logic
-                int centralRayIndex = raycaster.getNumRays() / 2; // with numRays being 1024
-                double wallDistance = raycaster.getRayDistances(centralRayIndex);
-                ArrayList<Enemy> hitEnemies = new ArrayList<Enemy>();
-                ArrayList<Integer> damages = new ArrayList<Integer>();
-                int hitCount = 0;
-                double minDistance = Double.MAX_VALUE;
-                double playerAngle = player.getAngle();
-                for (Enemy enemy : enemies)
+                // Shooting logic: every pellet is marched through the map and
+                // stops at the first enemy or wall, damage is split between pellets
+                int pellets = 1;
+                if (Objects.equals(currentWeapon.getName(), "Laser Shotgun"))
                 {
-                    double dx = enemy.getX() - player.getX();
-                    double dy = enemy.getY() - player.getY();
-                    double enemyAngle = Math.atan2(dy, dx);
-                    double distance = Math.sqrt(dx * dx + dy * dy);
-                    double angleTolerance = Math.atan2(ENEMYWIDTH , distance); // aiming tolerance = 1 degree
-                    double angleDiff = Math.abs(normalizeAngle(enemyAngle - playerAngle));
-                    if (Objects.equals(currentWeapon.getName(), "Laser Shotgun")) {
-                        if (((angleDiff - angleTolerance) < (SHOTGUNANGLE / 2))) {
-                            double overlap;
-                            if (angleDiff + angleTolerance < SHOTGUNANGLE /2) {
-                                overlap = (angleTolerance * 2);
-                            }else {
-                                //System.out.println("yes");
-                                overlap = ((SHOTGUNANGLE / 2) - (angleDiff - angleTolerance)) * 2;
-                            }
-                            damage = (int)(damage * (overlap / SHOTGUNANGLE));
-                            if (distance < minDistance && distance < wallDistance) {
-                                //System.out.println("Damage: " + damage  + " Overlap: " + overlap);
-                                minDistance = distance;
-                                hitEnemies.add(enemy);
-                                damages.add(damage);
-                                hitCount ++;
-                            }
-                            damage = currentWeapon.getDamage();
-                        }
-                    }else if (angleDiff < angleTolerance) {
-                        if (distance < minDistance && distance < wallDistance) {
-                            minDistance = distance;
-                            hitEnemies.add(enemy);
-                            damages.add(damage);
-                            hitCount ++;
-                        }
+                    pellets = SHOTGUNPELLETS;
+                }
+                int hitCount =
+                    hitscan.fire(enemies, player.getX(), player.getY(), player.getAngle(), pellets, SHOTGUNANGLE);
+
+                // Muzzle flash lights up the surroundings
+                lightMap.addLight(player.getX(), player.getY(), 0.8, 4, 0.1);
+
+                // Sparks where pellets struck a wall, thrown back towards the player
+                for (int p = 0; p < hitscan.getPelletCount(); p++)
+                {
+                    if (hitscan.getPelletHitWall(p))
+                    {
+                        double backX = hitscan.getPelletEndX(p) - Math.cos(player.getAngle());
+                        double backY = hitscan.getPelletEndY(p) - Math.sin(player.getAngle());
+                        particles.emit(backX, backY, TILE_SIZE / 2.0, 12, player.getAngle() + Math.PI, Math.PI, 60,
+                                       ParticleSystem.SPARK, 0.4);
                     }
                 }
 
-                if (!hitEnemies.isEmpty())
+                for (int i = 0; i < hitCount; i++)
                 {
-                    for (int i =0; i < hitCount; i ++) {
-                        hitEnemies.get(i).takeDamage(damages.get(i));
-                        playAudio(soundLazerHit);
-                        if (!hitEnemies.get(i).isAlive()) {
-                            playAudio(soundZombieDeath);
-                        }
+                    Enemy enemy = hitscan.getHitEnemy(i);
+                    enemy.takeDamage(damage * hitscan.getHitPellets(i) / pellets);
+                    playAudio(soundLazerHit, enemy.getAudioEmitter());
+                    if (!enemy.isAlive())
+                    {
+                        playAudio(soundZombieDeath, enemy.getAudioEmitter());
                     }
                 }
             } else if (currentWeapon.getCurrentMagAmmo() == 0) {
@@ -1037,18 +1199,46 @@ public class Main extends GameEngine
         startNewGame();
     }
 
+    // Starts a new game straight into a level, for headless tools
+    public void startLevel(int level)
+    {
+        startNewGame();
+        while (currentLevel < level)
+        {
+            advanceLevel();
+            resetPlayer();
+        }
+        currentState = GameState.PLAYING;
+    }
+
+    public Player getPlayer()
+    {
+        return player;
+    }
+
+    public int getNumOfLevels()
+    {
+        return numOfLevels;
+    }
+
     public AudioClip getSoundPlayerInjured()
     {
         return soundPlayerInjured;
     }
 
-    private double normalizeAngle(double angle)
+    public AudioClip getSoundEnemyShot()
     {
-        while (angle < -Math.PI)
-            angle += 2 * Math.PI;
-        while (angle > Math.PI)
-            angle -= 2 * Math.PI;
-        return angle;
+        return soundLazer1;
+    }
+
+    public ProjectileSystem getProjectiles()
+    {
+        return projectiles;
+    }
+
+    public AudioClip getSoundZombieNeutral()
+    {
+        return soundZombieNeutral;
     }
 
     private void spawnLevelEntities()
@@ -1056,6 +1246,8 @@ public class Main extends GameEngine
         enemies.clear();
         healthItems.clear();
         weaponItems.clear();
+        projectiles.clear();
+        particles.clear();
 
         List<int[]> walkableTiles = new ArrayList<>();
         for (int y = 0; y < GameMap.HEIGHT; y++)
@@ -1098,8 +1290,8 @@ public class Main extends GameEngine
             zombieDamage = 10;
         }
 
-        // Spawn enemies
-        Random rand = new Random();
+        // Spawn enemies from the session's seeded generator
+        Random rand = getRandom();
         for (int i = 0; i < enemyCount; i++)
         {
             if (walkableTiles.isEmpty())
@@ -1108,7 +1300,9 @@ public class Main extends GameEngine
             int[] tile = walkableTiles.get(index);
             double ex = tile[0] * TILE_SIZE + TILE_SIZE / 2.0;
             double ey = tile[1] * TILE_SIZE + TILE_SIZE / 2.0;
-            enemies.add(new Enemy(ex, ey, "", gameMap, TILE_SIZE, zombieDamage));
+            // Every fourth zombie is a Stormtrooper that holds its ground and shoots
+            String enemyType = (i % 4 == 3) ? Enemy.RANGED : "";
+            enemies.add(new Enemy(ex, ey, enemyType, gameMap, TILE_SIZE, zombieDamage));
         }
 
         int healthItemCount;
@@ -1165,7 +1359,7 @@ public class Main extends GameEngine
             double wx = tile[0] * TILE_SIZE + TILE_SIZE / 2.0;
             double wy = tile[1] * TILE_SIZE + TILE_SIZE / 2.0;
             Weapon lazerRifle = new Weapon("Laser Rifle", rifleDamage, 10, 30, 90, false, lazerRifleSprite, soundLazer3,
-                                           loadImage("assets/visual/LazerRifleFlare.png"), 2);
+                                           gameAsset.getLazerRifleFlare(), 2);
             weaponItems.add(new WeaponItem(wx, wy, lazerRiflePickup, lazerRifle));
         }
 
@@ -1177,7 +1371,7 @@ public class Main extends GameEngine
             double wx = tile[0] * TILE_SIZE + TILE_SIZE / 2.0;
             double wy = tile[1] * TILE_SIZE + TILE_SIZE / 2.0;
             Weapon lazerShotgun = new Weapon("Laser Shotgun", shotgunDamage, 2, 8, 24, false, lazerShotgunSprite,
-                                             soundLazer2, loadImage("assets/visual/LazerShotGunFlare.png"), 4);
+                                             soundLazer2, gameAsset.getLazerShotgunFlare(), 4);
             weaponItems.add(new WeaponItem(wx, wy, lazerShotgunPickup, lazerShotgun));
         }
         left = false;
@@ -1205,7 +1399,7 @@ public class Main extends GameEngine
         }
         Image laserPistolSprite = gameAsset.getLazerPistol();
         Weapon laserPistol =
-            new Weapon("Laser Pistol", pistolDamage, 5, 10, 0, true, laserPistolSprite, soundLazer1, loadImage("assets/visual/LazerPistolFlare.png"), 3);
+            new Weapon("Laser Pistol", pistolDamage, 5, 10, 0, true, laserPistolSprite, soundLazer1, gameAsset.getLazerPistolFlare(), 3);
         List<Weapon> weapons = new ArrayList<>();
         weapons.add(laserPistol);
         return weapons;
@@ -1213,6 +1407,8 @@ public class Main extends GameEngine
 
     private void advanceLevel()
     {
+        GameEvents.LevelLoadEvent loadEvent = new GameEvents.LevelLoadEvent();
+        loadEvent.begin();
         currentLevel++; // advance to the next level
         
         //if the current level is more than then number of levels, then player has won
@@ -1227,6 +1423,13 @@ public class Main extends GameEngine
             playAudio(soundWinDoorOpen);
         }
 
+        // Textures and their shaded copies live for one level
+        gameAsset.unloadLevelTextures();
+        ShadeTable.clearTextures();
+
+        // Frame times are written out as each level ends
+        flushFrameTimes();
+
         String mapFileName = "maps/Level01.txt";
 
         switch (currentLevel)
@@ -1254,7 +1457,22 @@ public class Main extends GameEngine
             System.exit(1);
         }
 
+        lightMap.bake();
+        hud.bakeMinimap(gameMap);
+        gameAsset.loadLevelTextures(TILE_SIZE * RayCaster.PROJECTION);
+
+        long spawnStart = System.nanoTime();
         spawnLevelEntities();
+
+        if (loadEvent.shouldCommit())
+        {
+            loadEvent.spawnTime = System.nanoTime() - spawnStart;
+            loadEvent.level = currentLevel;
+            loadEvent.mapFile = mapFileName;
+            loadEvent.enemies = enemies.size();
+            loadEvent.items = healthItems.size() + weaponItems.size();
+            loadEvent.commit();
+        }
     }
 
     public void resetAnimation(){
@@ -0,0 +1,107 @@
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.lang.foreign.Arena;
+
+// Mip chains for textures and sprite frames. Each level is half the size of
+// the one before, box filtered, so far away walls and sprites sample a
+// small image that fits in cache and does not shimmer.
+public class MipMap
+{
+    // Builds levels images, level 0 is the source itself
+    public static Image[] buildChain(Image source, int levels)
+    {
+        Image[] chain = new Image[levels];
+        chain[0] = source;
+        for (int level = 1; level < levels; level++)
+        {
+            chain[level] = halve((BufferedImage)chain[level - 1]);
+        }
+        return chain;
+    }
+
+    // Builds levels textures in arena, level 0 is the source itself
+    public static OffHeapTexture[] buildChain(Arena arena, OffHeapTexture source, int levels)
+    {
+        OffHeapTexture[] chain = new OffHeapTexture[levels];
+        chain[0] = source;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] pixels = new int[width * height];
+        source.read(pixels);
+        for (int level = 1; level < levels; level++)
+        {
+            pixels = halve(pixels, width, height);
+            width = Math.max(1, width / 2);
+            height = Math.max(1, height / 2);
+            chain[level] = OffHeapTexture.of(arena, width, height, source.isOpaque(), pixels);
+        }
+        return chain;
+    }
+
+    // The smallest level that still has at least as many texels as the
+    // screen pixels they cover, texels is the size at level 0
+    public static int selectLevel(double texels, double pixels, int levels)
+    {
+        int level = 0;
+        while (level + 1 < levels && texels / (2 << level) >= pixels)
+        {
+            level++;
+        }
+        return level;
+    }
+
+    // The nearest distance selectLevel picks level at, for something texels
+    // high at level 0 that is drawn scale / distance pixels high
+    public static double nearestDistance(double texels, double scale, int level)
+    {
+        return level == 0 ? 0 : scale * (1 << level) / texels;
+    }
+
+    private static BufferedImage halve(BufferedImage source)
+    {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int halfWidth = Math.max(1, width / 2);
+        int halfHeight = Math.max(1, height / 2);
+        int[] halved = halve(source.getRGB(0, 0, width, height, null, 0, width), width, height);
+
+        int type = source.getTransparency() == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB
+                                                                   : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage image = new BufferedImage(halfWidth, halfHeight, type);
+        image.setRGB(0, 0, halfWidth, halfHeight, halved, 0, halfWidth);
+        return image;
+    }
+
+    // Averages each 2x2 block, alpha weighted so transparent texels do not darken edges
+    private static int[] halve(int[] pixels, int width, int height)
+    {
+        int halfWidth = Math.max(1, width / 2);
+        int halfHeight = Math.max(1, height / 2);
+        int[] halved = new int[halfWidth * halfHeight];
+
+        for (int y = 0; y < halfHeight; y++)
+        {
+            for (int x = 0; x < halfWidth; x++)
+            {
+                int a = 0, r = 0, g = 0, b = 0;
+                for (int i = 0; i < 4; i++)
+                {
+                    int sx = Math.min(width - 1, x * 2 + (i & 1));
+                    int sy = Math.min(height - 1, y * 2 + (i >> 1));
+                    int argb = pixels[sy * width + sx];
+                    int alpha = argb >>> 24;
+                    a += alpha;
+                    r += ((argb >> 16) & 0xFF) * alpha;
+                    g += ((argb >> 8) & 0xFF) * alpha;
+                    b += (argb & 0xFF) * alpha;
+                }
+                if (a > 0)
+                {
+                    halved[y * halfWidth + x] = ((a / 4) << 24) | ((r / a) << 16) | ((g / a) << 8) | (b / a);
+                }
+            }
+        }
+        return halved;
+    }
+}
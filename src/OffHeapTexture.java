@@ -0,0 +1,82 @@
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+// A texture held outside the Java heap, in a MemorySegment allocated from
+// an Arena, as ARGB ints row after row. It is freed when its arena is
+// closed, so a level's textures go all at once when it is unloaded. It is
+// only the source shaded copies are built from: Java2D only draws heap
+// images, so ShadeTable keeps a heap copy of every level a texture can be
+// drawn at, full brightness included, and those still grow with its size.
+public class OffHeapTexture
+{
+    private final MemorySegment pixels;
+    private final int width;
+    private final int height;
+    private final boolean opaque;
+
+    private OffHeapTexture(Arena arena, int width, int height, boolean opaque)
+    {
+        this.pixels = arena.allocate(ValueLayout.JAVA_INT.byteSize() * width * height,
+                                     ValueLayout.JAVA_INT.byteAlignment());
+        this.width = width;
+        this.height = height;
+        this.opaque = opaque;
+    }
+
+    // A texture in arena holding the width x height ARGB pixels
+    public static OffHeapTexture of(Arena arena, int width, int height, boolean opaque, int[] argb)
+    {
+        OffHeapTexture texture = new OffHeapTexture(arena, width, height, opaque);
+        MemorySegment.copy(argb, 0, texture.pixels, ValueLayout.JAVA_INT, 0, width * height);
+        return texture;
+    }
+
+    // A copy of image in arena
+    public static OffHeapTexture copyOf(Arena arena, BufferedImage image)
+    {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        return of(arena, w, h, image.getTransparency() == Transparency.OPAQUE, image.getRGB(0, 0, w, h, null, 0, w));
+    }
+
+    // A left-right mirrored copy in arena
+    public OffHeapTexture mirrored(Arena arena)
+    {
+        OffHeapTexture mirrored = new OffHeapTexture(arena, width, height, opaque);
+        for (int y = 0; y < height; y++)
+        {
+            long row = (long)y * width;
+            for (int x = 0; x < width; x++)
+            {
+                int pixel = pixels.getAtIndex(ValueLayout.JAVA_INT, row + x);
+                mirrored.pixels.setAtIndex(ValueLayout.JAVA_INT, row + width - 1 - x, pixel);
+            }
+        }
+        return mirrored;
+    }
+
+    // Copies every pixel into argb, which holds at least width * height
+    public void read(int[] argb)
+    {
+        MemorySegment.copy(pixels, ValueLayout.JAVA_INT, 0, argb, 0, width * height);
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    // Opaque textures are drawn from opaque images, see ShadeTable
+    public boolean isOpaque()
+    {
+        return opaque;
+    }
+}
@@ -0,0 +1,251 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+// Sparks, blood and muzzle flashes. Particles live in a fixed-capacity
+// structure of float arrays: integration runs as whole array passes
+// through Kernels (SIMD when available), and dead particles are swapped
+// out in a separate pass. Drawing writes pixels straight into an ARGB layer that is depth
+// tested per column against the ray caster and blitted once per frame.
+public class ParticleSystem
+{
+    // Particle colours
+    public static final int SPARK = 0xFFFFD070;
+    public static final int BLOOD = 0xFF8A0A0A;
+    public static final int FLASH = 0xFF80C0FF;
+
+    static final float GRAVITY = 160;
+    private static final float BOUNCE = 0.3f;
+    private static final float FRICTION = 0.6f;
+
+    private final int capacity;
+    private int count = 0;
+
+    // Particle state, entries [0, count) are live. z is the height above the floor.
+    private final float[] x, y, z;
+    private final float[] velocityX, velocityY, velocityZ;
+    private final float[] life, inverseLife;
+    private final int[] colour;
+
+    private GameMap map;
+    private final int tileSize;
+    private int randomState;
+
+    // Framebuffer layer and the area drawn into last frame
+    private BufferedImage layer;
+    private int[] pixels;
+    private int dirtyMinX, dirtyMinY, dirtyMaxX = -1, dirtyMaxY = -1;
+
+    public ParticleSystem(int capacity, GameMap map, int tileSize, long seed)
+    {
+        this.capacity = capacity;
+        this.map = map;
+        this.tileSize = tileSize;
+        this.randomState = (int)(seed ^ (seed >>> 32)) | 1;
+
+        x = new float[capacity];
+        y = new float[capacity];
+        z = new float[capacity];
+        velocityX = new float[capacity];
+        velocityY = new float[capacity];
+        velocityZ = new float[capacity];
+        life = new float[capacity];
+        inverseLife = new float[capacity];
+        colour = new int[capacity];
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    public void clear()
+    {
+        count = 0;
+    }
+
+    public void setMap(GameMap map)
+    {
+        this.map = map;
+    }
+
+    // Emits up to amount particles from (px, py, pz) spraying around angle
+    // within spread radians, with speeds up to speed. Particles beyond the
+    // capacity are dropped.
+    public void emit(double px, double py, double pz, int amount, double angle, double spread, double speed,
+                     int argb, double seconds)
+    {
+        amount = Math.min(amount, capacity - count);
+        for (int n = 0; n < amount; n++)
+        {
+            int i = count++;
+            double a = angle + spread * (nextFloat() - 0.5f);
+            float s = (float)speed * (0.3f + 0.7f * nextFloat());
+            x[i] = (float)px;
+            y[i] = (float)py;
+            z[i] = (float)pz;
+            velocityX[i] = (float)Math.cos(a) * s;
+            velocityY[i] = (float)Math.sin(a) * s;
+            velocityZ[i] = s * (nextFloat() - 0.3f);
+            life[i] = (float)seconds * (0.5f + 0.5f * nextFloat());
+            inverseLife[i] = 1 / life[i];
+            colour[i] = argb;
+        }
+    }
+
+    public void update(double dt)
+    {
+        float step = (float)dt;
+        int n = count;
+
+        // Integrate, each kernel is a straight pass over one or two arrays
+        Kernels kernels = Kernels.get();
+        kernels.integrate(x, velocityX, n, step);
+        kernels.integrate(y, velocityY, n, step);
+        kernels.add(velocityZ, n, -(GRAVITY * step));
+        kernels.integrate(z, velocityZ, n, step);
+        kernels.add(life, n, -step);
+
+        // Bounce off the floor and remove expired particles or those inside walls
+        int i = 0;
+        while (i < count)
+        {
+            if (life[i] <= 0 || map.isWall((int)(x[i] / tileSize), (int)(y[i] / tileSize)))
+            {
+                remove(i);
+                continue;
+            }
+            if (z[i] < 0)
+            {
+                z[i] = 0;
+                velocityZ[i] = -velocityZ[i] * BOUNCE;
+                velocityX[i] *= FRICTION;
+                velocityY[i] *= FRICTION;
+            }
+            i++;
+        }
+    }
+
+    // Swaps the last particle into slot i to keep the arrays packed
+    private void remove(int i)
+    {
+        int last = --count;
+        x[i] = x[last];
+        y[i] = y[last];
+        z[i] = z[last];
+        velocityX[i] = velocityX[last];
+        velocityY[i] = velocityY[last];
+        velocityZ[i] = velocityZ[last];
+        life[i] = life[last];
+        inverseLife[i] = inverseLife[last];
+        colour[i] = colour[last];
+    }
+
+    //-------------------------------------------------------
+    // Rendering
+    //-------------------------------------------------------
+
+    // Projects every particle with the ray caster's camera and draws the
+    // ones in front of the walls. Only the first numRays entries of
+    // rayDistances were cast this frame.
+    public void draw(GameEngine g, Player player, double[] rayDistances, int numRays, double fov)
+    {
+        int width = g.width();
+        int height = g.height();
+        if (layer == null || layer.getWidth() != width || layer.getHeight() != height)
+        {
+            layer = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            pixels = ((DataBufferInt)layer.getRaster().getDataBuffer()).getData();
+            dirtyMaxX = -1;
+            dirtyMaxY = -1;
+        }
+
+        // Clear what was drawn last frame
+        for (int row = dirtyMinY; row <= dirtyMaxY; row++)
+        {
+            int offset = row * width;
+            for (int column = dirtyMinX; column <= dirtyMaxX; column++)
+            {
+                pixels[offset + column] = 0;
+            }
+        }
+        int minX = width, minY = height, maxX = -1, maxY = -1;
+
+        float px = (float)player.getX();
+        float py = (float)player.getY();
+        float dirX = (float)Math.cos(player.getAngle());
+        float dirY = (float)Math.sin(player.getAngle());
+        float halfTan = (float)Math.tan(fov / 2);
+        float columnsPerRadian = (float)(width / fov);
+        float horizon = (float)(height / 2.0 - player.getVerticalLookOffset());
+        float eyeHeight = tileSize / 2f;
+
+        for (int i = 0; i < count; i++)
+        {
+            float dx = x[i] - px;
+            float dy = y[i] - py;
+
+            // Camera space: depth along the view and sideways offset
+            float depth = dx * dirX + dy * dirY;
+            if (depth < 1)
+                continue;
+            float side = dx * -dirY + dy * dirX;
+            float slope = side / depth;
+            if (slope < -halfTan || slope > halfTan)
+                continue;
+            int screenX = (int)(width / 2 + atan(slope) * columnsPerRadian);
+            if (screenX < 0 || screenX >= width)
+                continue;
+
+            int ray = screenX * numRays / width;
+            if (dx * dx + dy * dy >= rayDistances[ray] * rayDistances[ray])
+                continue;
+
+            // Same vertical scale as the walls, 640 pixels per unit at depth 1
+            float scale = 640 / depth;
+            int screenY = (int)(horizon + (eyeHeight - z[i]) * scale);
+            int size = Math.max(1, Math.min(4, (int)(scale * 0.3f)));
+            if (screenY < 0 || screenY + size > height || screenX + size > width)
+                continue;
+
+            int alpha = (int)(255 * Math.min(1, life[i] * inverseLife[i] * 2));
+            int argb = (alpha << 24) | (colour[i] & 0xFFFFFF);
+            for (int row = screenY; row < screenY + size; row++)
+            {
+                int offset = row * width + screenX;
+                for (int column = 0; column < size; column++)
+                {
+                    pixels[offset + column] = argb;
+                }
+            }
+            minX = Math.min(minX, screenX);
+            minY = Math.min(minY, screenY);
+            maxX = Math.max(maxX, screenX + size - 1);
+            maxY = Math.max(maxY, screenY + size - 1);
+        }
+
+        dirtyMinX = minX;
+        dirtyMinY = minY;
+        dirtyMaxX = maxX;
+        dirtyMaxY = maxY;
+        if (maxX >= minX)
+        {
+            g.mGraphics.drawImage(layer, minX, minY, maxX + 1, maxY + 1, minX, minY, maxX + 1, maxY + 1, null);
+        }
+    }
+
+    // atan for |t| <= 1, within about 0.0015 radians
+    private static float atan(float t)
+    {
+        float a = Math.abs(t);
+        return 0.7853982f * t - t * (a - 1) * (0.2447f + 0.0663f * a);
+    }
+
+    // xorshift, deterministic for a seed and free of allocation
+    private float nextFloat()
+    {
+        randomState ^= randomState << 13;
+        randomState ^= randomState >>> 17;
+        randomState ^= randomState << 5;
+        return (randomState >>> 8) * (1f / (1 << 24));
+    }
+}
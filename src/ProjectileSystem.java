@@ -0,0 +1,296 @@
+import java.awt.Image;
+
+// Slow moving bolts fired by ranged enemies. Every projectile lives in a
+// preallocated structure of arrays kept densely packed, so spawning,
+// updating and drawing thousands of bolts does not allocate. Movement is
+// swept against the map grid and the player so fast bolts cannot tunnel.
+public class ProjectileSystem
+{
+    private final int capacity;
+    private int count = 0;
+
+    // Projectile state, entries [0, count) are live
+    private final double[] x, y;
+    private final double[] velocityX, velocityY;
+    private final double[] life;
+    private final int[] damage;
+
+    // Draw order for the current frame, farthest first
+    private final long[] order;
+    private final double[] orderDistance;
+    private int visibleCount = 0;
+    private int nextVisible = 0;
+
+    private GameMap map;
+    private ParticleSystem particles;
+    private LightMap lightMap;
+    private final int tileSize;
+    private final Image sprite;
+    private final double spriteAspect;
+
+    private static final double PLAYER_RADIUS = 6;
+    private static final double MAX_LIFE = 6;
+
+    public ProjectileSystem(int capacity, GameMap map, int tileSize, Image sprite)
+    {
+        this.capacity = capacity;
+        this.map = map;
+        this.tileSize = tileSize;
+        this.sprite = sprite;
+        this.spriteAspect = (double)sprite.getWidth(null) / sprite.getHeight(null);
+
+        x = new double[capacity];
+        y = new double[capacity];
+        velocityX = new double[capacity];
+        velocityY = new double[capacity];
+        life = new double[capacity];
+        damage = new int[capacity];
+        order = new long[capacity];
+        orderDistance = new double[capacity];
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    public void clear()
+    {
+        count = 0;
+        visibleCount = 0;
+    }
+
+    // Fires a projectile; returns false if the pool is full
+    public boolean spawn(double startX, double startY, double angle, double speed, int amount)
+    {
+        if (count == capacity)
+            return false;
+
+        int i = count++;
+        x[i] = startX;
+        y[i] = startY;
+        velocityX[i] = Math.cos(angle) * speed;
+        velocityY[i] = Math.sin(angle) * speed;
+        life[i] = MAX_LIFE;
+        damage[i] = amount;
+        return true;
+    }
+
+    // Moves every projectile, removing those that hit a wall, the player
+    // or expire. Returns the total damage dealt to the player.
+    public int update(double dt, Player player)
+    {
+        int dealt = 0;
+        double px = player.getX();
+        double py = player.getY();
+
+        int i = 0;
+        while (i < count)
+        {
+            double startX = x[i];
+            double startY = y[i];
+            double moveX = velocityX[i] * dt;
+            double moveY = velocityY[i] * dt;
+
+            life[i] -= dt;
+            if (life[i] <= 0)
+            {
+                remove(i);
+                continue;
+            }
+            if (hitsWall(startX, startY, moveX, moveY))
+            {
+                if (particles != null)
+                {
+                    double angle = Math.atan2(velocityY[i], velocityX[i]);
+                    particles.emit(startX, startY, tileSize / 2.0, 16, angle + Math.PI, Math.PI, 50,
+                                   ParticleSystem.FLASH, 0.5);
+                }
+                if (lightMap != null)
+                {
+                    lightMap.addLight(startX, startY, 0.7, 3, 0.2);
+                }
+                remove(i);
+                continue;
+            }
+
+            if (hitsCircle(startX, startY, moveX, moveY, px, py, PLAYER_RADIUS))
+            {
+                dealt += damage[i];
+                remove(i);
+                continue;
+            }
+
+            x[i] = startX + moveX;
+            y[i] = startY + moveY;
+            i++;
+        }
+        return dealt;
+    }
+
+    // Swaps the last projectile into slot i to keep the arrays packed
+    private void remove(int i)
+    {
+        int last = --count;
+        x[i] = x[last];
+        y[i] = y[last];
+        velocityX[i] = velocityX[last];
+        velocityY[i] = velocityY[last];
+        life[i] = life[last];
+        damage[i] = damage[last];
+    }
+
+    // Walks the tiles crossed by the move and checks each for a wall
+    private boolean hitsWall(double startX, double startY, double moveX, double moveY)
+    {
+        double length = Math.sqrt(moveX * moveX + moveY * moveY);
+        int steps = Math.max(1, (int)Math.ceil(length / (tileSize / 4.0)));
+        for (int s = 1; s <= steps; s++)
+        {
+            double t = (double)s / steps;
+            if (map.isWall((int)((startX + moveX * t) / tileSize), (int)((startY + moveY * t) / tileSize)))
+                return true;
+        }
+        return false;
+    }
+
+    // True if the segment from start along move passes within radius of (cx, cy)
+    private static boolean hitsCircle(double startX, double startY, double moveX, double moveY, double cx,
+                                      double cy, double radius)
+    {
+        double toX = cx - startX;
+        double toY = cy - startY;
+        double length2 = moveX * moveX + moveY * moveY;
+        double t = length2 > 0 ? (toX * moveX + toY * moveY) / length2 : 0;
+        t = Math.max(0, Math.min(1, t));
+        double dx = startX + moveX * t - cx;
+        double dy = startY + moveY * t - cy;
+        return dx * dx + dy * dy <= radius * radius;
+    }
+
+    public void setMap(GameMap map)
+    {
+        this.map = map;
+    }
+
+    // Bolts that hit a wall burst into particles
+    public void setParticles(ParticleSystem particles)
+    {
+        this.particles = particles;
+    }
+
+    // and light up their surroundings
+    public void setLightMap(LightMap lightMap)
+    {
+        this.lightMap = lightMap;
+    }
+
+    //-------------------------------------------------------
+    // Rendering
+    //-------------------------------------------------------
+
+    // Finds the projectiles in view and sorts them farthest first.
+    // Call once per frame before drawUntil.
+    public void prepareDraw(Player player, double fov)
+    {
+        double px = player.getX();
+        double py = player.getY();
+        double halfFov = fov / 2;
+
+        visibleCount = 0;
+        nextVisible = 0;
+        for (int i = 0; i < count; i++)
+        {
+            double dx = x[i] - px;
+            double dy = y[i] - py;
+            double relative = normalizeAngle(Math.atan2(dy, dx) - player.getAngle());
+            if (Math.abs(relative) > halfFov)
+                continue;
+
+            // Pack the distance above the index: positive float bits sort like the floats
+            float distance = (float)Math.sqrt(dx * dx + dy * dy);
+            order[visibleCount++] = ((long)Float.floatToIntBits(distance) << 32) | i;
+        }
+        heapSortDescending(order, visibleCount);
+        for (int v = 0; v < visibleCount; v++)
+        {
+            orderDistance[v] = Float.intBitsToFloat((int)(order[v] >>> 32));
+        }
+    }
+
+    // Draws the not yet drawn projectiles that are at least minDistance away,
+    // so they interleave with the other sprites sorted farthest first.
+    // Only the first numRays entries of rayDistances were cast this frame.
+    public void drawUntil(GameEngine g, Player player, double[] rayDistances, int numRays, double fov,
+                          double minDistance)
+    {
+        while (nextVisible < visibleCount && orderDistance[nextVisible] >= minDistance)
+        {
+            drawProjectile(g, player, rayDistances, numRays, fov, (int)order[nextVisible],
+                           orderDistance[nextVisible]);
+            nextVisible++;
+        }
+    }
+
+    private void drawProjectile(GameEngine g, Player player, double[] rayDistances, int numRays, double fov,
+                                int i, double distance)
+    {
+        double relative = normalizeAngle(Math.atan2(y[i] - player.getY(), x[i] - player.getX()) - player.getAngle());
+        double screenWidth = g.width();
+        double screenX = (relative / (fov / 2)) * (screenWidth / 2) + (screenWidth / 2);
+
+        int rayIndex = (int)(screenX / (screenWidth / numRays));
+        if (rayIndex < 0 || rayIndex >= numRays || distance >= rayDistances[rayIndex])
+            return;
+
+        // Scaled like the enemy sprites, flying at chest height
+        double height = Math.min(g.height() / 4.0, (tileSize * 30) / Math.max(distance, 1));
+        double width = height * spriteAspect / 2;
+        double screenY = (g.height() - height) / 2 - player.getVerticalLookOffset();
+        g.drawImage(sprite, screenX - width / 2, screenY, width, height);
+    }
+
+    private static double normalizeAngle(double angle)
+    {
+        while (angle < -Math.PI)
+            angle += 2 * Math.PI;
+        while (angle > Math.PI)
+            angle -= 2 * Math.PI;
+        return angle;
+    }
+
+    // In-place heap sort into descending order
+    private static void heapSortDescending(long[] a, int n)
+    {
+        // Build a min-heap, then repeatedly move the minimum to the end
+        for (int i = n / 2 - 1; i >= 0; i--)
+        {
+            siftDown(a, i, n);
+        }
+        for (int end = n - 1; end > 0; end--)
+        {
+            long swap = a[0];
+            a[0] = a[end];
+            a[end] = swap;
+            siftDown(a, 0, end);
+        }
+    }
+
+    private static void siftDown(long[] a, int i, int n)
+    {
+        while (true)
+        {
+            int child = 2 * i + 1;
+            if (child >= n)
+                return;
+            if (child + 1 < n && a[child + 1] < a[child])
+                child++;
+            if (a[i] <= a[child])
+                return;
+            long swap = a[i];
+            a[i] = a[child];
+            a[child] = swap;
+            i = child;
+        }
+    }
+}
@@ -1,5 +1,5 @@
-import java.awt.Color;
 import java.awt.Image;
+import java.util.Arrays;
 
 public class RayCaster
 {
@@ -7,13 +7,52 @@ public class RayCaster
     private int tileSize;
     private GameAsset gameAsset;
 
+    public static final int MAX_RAYS = 1024;
+    // Rays are spread over the field of view from edge to edge, which takes two
+    public static final int MIN_RAYS = 2;
+
+    // A wall at distance is drawn tileSize * PROJECTION / distance pixels high
+    public static final double PROJECTION = 640;
     private int numRays;
     private double fov;
     private double[] rayX;
     private double[] rayY;
     private double[] rayDistances;
     private int[] wallType;
-    private Image[] imageWallSegment;
+    private int[] wallTextureX;
+    private LightMap lightMap;
+
+    // Camera and map the rays were last cast for
+    private GameMap castMap;
+    private int castVersion;
+    private double castX, castY, castAngle = Double.NaN;
+    private int castNumRays;
+    private double castFov;
+    private long raysCast = 0;
+    // Only asked whether ray cast events are recorded, each cast gets its own event
+    private static final GameEvents.RayCastEvent CAST_EVENT_TYPE = new GameEvents.RayCastEvent();
+    private int wallDraws = 0;
+
+    // Interleaved casting: each frame only every interleave-th column is cast,
+    // the others are reprojected from their last hit points. The columns are
+    // complete again once every phase has been cast from an unchanged camera.
+    private int interleave = 1;
+    private int phase = 0;
+    private int freshPhases = 0;
+    private boolean complete = false;
+
+    // Last frame's hit points while reprojecting, and the columns none landed in
+    private double[] lastX, lastY;
+    private int[] lastWallType, lastTextureX;
+    private boolean[] holes;
+
+    // Beyond these the reprojection would show, so everything is cast again
+    private static final int MAX_REPROJECT_STEPS = 64;
+    private static final double MAX_REPROJECT_MOVE = 0.25; // tiles
+
+    // Profiler phases
+    private static final int PHASE_CAST_RAYS = FrameProfiler.register("castRays");
+    private static final int PHASE_WALLS = FrameProfiler.register("walls");
 
     public RayCaster(GameMap map, int tileSize, GameAsset gameAsset)
     {
@@ -21,17 +60,18 @@ public class RayCaster
         this.tileSize = tileSize;
         this.gameAsset = gameAsset;
 
-        numRays = 1024;
+        numRays = MAX_RAYS;
         fov = Math.toRadians(60);
 
-        rayX = new double[numRays];
-        rayY = new double[numRays];
-        rayDistances = new double[numRays];
-        imageWallSegment = new Image[numRays];
-        wallType = new int[numRays];
+        rayX = new double[MAX_RAYS];
+        rayY = new double[MAX_RAYS];
+        rayDistances = new double[MAX_RAYS];
+        wallTextureX = new int[MAX_RAYS];
+        wallType = new int[MAX_RAYS];
     }
 
-    public void castSingleRay(double px, double py, double rayAngle, int rayIndex)
+    // Returns true if the ray hit a wall
+    public boolean castSingleRay(double px, double py, double rayAngle, int rayIndex)
     {
         double sinA = Math.sin(rayAngle);
         double cosA = Math.cos(rayAngle);
@@ -126,31 +166,209 @@ public class RayCaster
             saveRay(rayIndex, horX, horY, horDist, horWallType, false);
         else if (vertHit)
             saveRay(rayIndex, vertX, vertY, vertDist, vertWallType, true);
+        return horHit || vertHit;
     }
 
+    // Casts the rays for a camera. The view angle is rounded to a whole number
+    // of ray steps, at most half a step off, so turning on the spot always
+    // shifts the kept rays along and only the ones that came into view are
+    // cast. When the camera and map are unchanged since the last cast the rays
+    // are kept. With interleaving on, a camera that moved or turned a little
+    // keeps its hit points reprojected into the new view, and only one phase of
+    // columns plus the holes are cast.
     public void castRays(double px, double py, double playerAngle)
     {
-        double startAngle = playerAngle - fov / 2.0;
         double angleStep = fov / (numRays - 1);
+        double viewAngle = Math.rint(playerAngle / angleStep) * angleStep;
+        double startAngle = viewAngle - fov / 2.0;
+
+        // Columns first to last are cast in full, then every interleave-th from phaseStart
+        int first = 0;
+        int last = numRays;
+        int phaseStart = -1;
+        boolean castHoles = false;
+        boolean sameMap = map == castMap && map.getVersion() == castVersion && numRays == castNumRays &&
+                          fov == castFov;
+        double shift = (viewAngle - castAngle) / angleStep;
+        long steps = Math.round(shift);
+        double moved = Math.hypot(px - castX, py - castY) / tileSize;
+
+        if (sameMap && px == castX && py == castY && Math.abs(shift - steps) < 1e-6 && Math.abs(steps) < numRays)
+        {
+            keepRays((int)steps);
+            first = steps > 0 ? numRays - (int)steps : 0;
+            last = steps < 0 ? (int)-steps : (steps > 0 ? numRays : 0);
+            if (!complete)
+            {
+                phaseStart = nextPhase();
+                if (++freshPhases >= interleave)
+                    complete = true;
+            }
+        }
+        else if (interleave > 1 && sameMap && Math.abs(steps) <= MAX_REPROJECT_STEPS && moved < MAX_REPROJECT_MOVE)
+        {
+            reproject(px, py, startAngle, angleStep);
+            first = 0;
+            last = 0;
+            phaseStart = nextPhase();
+            castHoles = true;
+            freshPhases = 1;
+            complete = false;
+        }
+        else
+        {
+            complete = true;
+        }
 
-        for (int i = 0; i < numRays; i++)
+        GameEvents.RayCastEvent event = null;
+        if (CAST_EVENT_TYPE.isEnabled())
+        {
+            event = new GameEvents.RayCastEvent();
+            event.begin();
+        }
+        int rays = 0;
+        int hits = 0;
+        for (int i = first; i < last; i++)
         {
             double rayAngle = startAngle + i * angleStep;
-            castSingleRay(px, py, rayAngle, i);
+            if (castSingleRay(px, py, rayAngle, i))
+                hits++;
+            rays++;
+        }
+        if (phaseStart >= 0)
+        {
+            for (int i = 0; i < numRays; i++)
+            {
+                if ((i >= first && i < last) || (i % interleave != phaseStart && !(castHoles && holes[i])))
+                    continue;
+                double rayAngle = startAngle + i * angleStep;
+                if (castSingleRay(px, py, rayAngle, i))
+                    hits++;
+                rays++;
+            }
+        }
+        raysCast += rays;
+        if (event != null && event.shouldCommit())
+        {
+            event.rays = rays;
+            event.hits = hits;
+            event.commit();
+        }
+
+        castMap = map;
+        castVersion = map.getVersion();
+        castX = px;
+        castY = py;
+        castAngle = viewAngle;
+        castNumRays = numRays;
+        castFov = fov;
+    }
+
+    // Shifts the kept rays for a turn of steps ray steps, the columns that
+    // came into view are left for casting
+    private void keepRays(int steps)
+    {
+        int kept = numRays - Math.abs(steps);
+        if (steps > 0)
+            shiftRays(steps, 0, kept);
+        else if (steps < 0)
+            shiftRays(0, -steps, kept);
+    }
+
+    // Moves last frame's hit points to the columns they are seen in from the
+    // new camera, the nearest wins. Columns nothing lands in are holes to cast.
+    private void reproject(double px, double py, double startAngle, double angleStep)
+    {
+        if (lastX == null || lastX.length != numRays)
+        {
+            lastX = new double[numRays];
+            lastY = new double[numRays];
+            lastWallType = new int[numRays];
+            lastTextureX = new int[numRays];
+            holes = new boolean[numRays];
+        }
+        System.arraycopy(rayX, 0, lastX, 0, numRays);
+        System.arraycopy(rayY, 0, lastY, 0, numRays);
+        System.arraycopy(wallType, 0, lastWallType, 0, numRays);
+        System.arraycopy(wallTextureX, 0, lastTextureX, 0, numRays);
+        Arrays.fill(holes, true);
+
+        for (int j = 0; j < numRays; j++)
+        {
+            double dx = lastX[j] - px;
+            double dy = lastY[j] - py;
+            double offset = Math.atan2(dy, dx) - startAngle;
+            offset -= 2 * Math.PI * Math.floor((offset + Math.PI) / (2 * Math.PI));
+            int i = (int)Math.round(offset / angleStep);
+            if (i < 0 || i >= numRays)
+                continue;
+
+            double dist = Math.max(1, Math.sqrt(dx * dx + dy * dy));
+            if (!holes[i] && rayDistances[i] <= dist)
+                continue;
+            holes[i] = false;
+            rayX[i] = lastX[j];
+            rayY[i] = lastY[j];
+            rayDistances[i] = dist;
+            wallType[i] = lastWallType[j];
+            wallTextureX[i] = lastTextureX[j];
+        }
+
+        // A one column gap inside a flat stretch of the same wall is filled
+        // from its neighbours instead of being cast
+        for (int i = 1; i < numRays - 1; i++)
+        {
+            if (!holes[i] || holes[i - 1] || holes[i + 1] || wallType[i - 1] != wallType[i + 1] ||
+                Math.abs(wallTextureX[i - 1] - wallTextureX[i + 1]) > 2 ||
+                Math.abs(rayDistances[i - 1] - rayDistances[i + 1]) > rayDistances[i - 1] * 0.02)
+                continue;
+            holes[i] = false;
+            rayX[i] = (rayX[i - 1] + rayX[i + 1]) / 2;
+            rayY[i] = (rayY[i - 1] + rayY[i + 1]) / 2;
+            rayDistances[i] = distance(px, py, rayX[i], rayY[i]);
+            wallType[i] = wallType[i - 1];
+            wallTextureX[i] = (wallTextureX[i - 1] + wallTextureX[i + 1]) / 2;
         }
     }
 
+    // Phases go 0, 2, 1, 3 so the cast columns are spread out over the frames
+    private int nextPhase()
+    {
+        phase = (phase + 1) % interleave;
+        return interleave == 4 ? (phase >> 1) | ((phase & 1) << 1) : phase;
+    }
+
+    // Moves count cast rays from index from to index to
+    private void shiftRays(int from, int to, int count)
+    {
+        System.arraycopy(rayX, from, rayX, to, count);
+        System.arraycopy(rayY, from, rayY, to, count);
+        System.arraycopy(rayDistances, from, rayDistances, to, count);
+        System.arraycopy(wallType, from, wallType, to, count);
+        System.arraycopy(wallTextureX, from, wallTextureX, to, count);
+    }
+
     // verticalLookOffset moves view UP or DOWN by shifting drawn walls vertically
     public void draw(GameEngine ge, double px, double py, double playerAngle, double verticalLookOffset)
     {
         // Cast all rays before drawing
+        ge.profileBegin(PHASE_CAST_RAYS);
         castRays(px, py, playerAngle);
+        ge.profileEnd(PHASE_CAST_RAYS);
+        ge.profileBegin(PHASE_WALLS);
 
         //ge.drawSolidRectangle(0, 0, ge.width(), ge.height() / 2);               // Ceiling
         //ge.drawSolidRectangle(0, ge.height() / 2, ge.width(), ge.height() / 2); // Floor
 
         double stripWidth = (double)ge.width() / numRays;
 
+        // Neighbouring rays are merged into one draw of a span of texture
+        // columns when they share the mip level and shade and their tops and
+        // bottoms are within a pixel. The run so far is rays runStart to i.
+        int runStart = -1, runMip = 0, runLevel = 0, runY = 0, runHeight = 0;
+        int runFirst = 0, runLast = 0, runStep = 0;
+        wallDraws = 0;
+
         for (int i = 0; i < numRays; i++)
         {
             double dist = rayDistances[i];
@@ -159,22 +377,82 @@ public class RayCaster
             double angleOffset = (i - numRays / 2.0) * (fov / numRays);
             dist *= Math.cos(angleOffset);
 
-            double lineHeight = (tileSize * 640) / dist;
+            double lineHeight = (tileSize * PROJECTION) / dist;
             double maxLineHeight = ge.height() * 8;
             if (lineHeight > maxLineHeight)
                 lineHeight = maxLineHeight;
 
             double yOffset = (ge.height() - lineHeight) / 2 - verticalLookOffset;
 
-            ge.drawImage(imageWallSegment[i], i * stripWidth, yOffset, stripWidth, lineHeight);
+            // Depth shading, lit by the tile in front of the wall
+            double light = 1.0;
+            if (lightMap != null)
+            {
+                double toWall = rayDistances[i];
+                double frontX = rayX[i] - (rayX[i] - px) / toWall;
+                double frontY = rayY[i] - (rayY[i] - py) / toWall;
+                light = lightMap.sample(frontX, frontY);
+            }
+            int level = ShadeTable.level(dist, light);
+
+            // Far walls use a smaller mip level of the texture
+            int mip = MipMap.selectLevel(gameAsset.getWALLPIXELSIZE(), lineHeight, GameAsset.WALL_MIP_LEVELS);
+
+            int column = gameAsset.getScifiWallColumn(wallType[i], wallTextureX[i], mip);
+            int y = (int)yOffset;
+            int height = (int)lineHeight;
+
+            // The texture columns of a run only ever step one way, with repeats where it is magnified
+            int step = column - runLast;
+            if (runStart >= 0 && mip == runMip && level == runLevel && Math.abs(y - runY) <= 1 &&
+                Math.abs(y + height - runY - runHeight) <= 1 &&
+                (step == 0 || (step == 1 || step == -1) && (runStep == 0 || step == runStep)))
+            {
+                runLast = column;
+                if (step != 0)
+                    runStep = step;
+                continue;
+            }
 
-            // Depth shading
-            double maxDistance = 200;
-            double brightness = Math.max(0.1, 1.0 - dist / maxDistance);
-            int shade = 255 - (int)(brightness * 255);
-            ge.changeColor(new Color(0, 0, 0, shade));
-            ge.drawSolidRectangle(i * stripWidth, yOffset - 1, stripWidth, lineHeight + 1);
+            // Rays narrower than a pixel that start inside the run's last pixel are covered by it
+            if (runStart >= 0 && (int)(i * stripWidth) == (int)((i + 1) * stripWidth))
+                continue;
+
+            drawRun(ge, runStart, i, stripWidth, runMip, runLevel, runY, runHeight, runFirst, runLast);
+            runStart = i;
+            runMip = mip;
+            runLevel = level;
+            runY = y;
+            runHeight = height;
+            runFirst = column;
+            runLast = column;
+            runStep = 0;
         }
+        drawRun(ge, runStart, numRays, stripWidth, runMip, runLevel, runY, runHeight, runFirst, runLast);
+        ge.profileEnd(PHASE_WALLS);
+    }
+
+    // Draws texture columns first to last stretched over the screen columns of rays start to end
+    private void drawRun(GameEngine ge, int start, int end, double stripWidth, int mip, int level, int y, int height,
+                         int first, int last)
+    {
+        if (start < 0)
+            return;
+        int x = (int)(start * stripWidth);
+        int size = gameAsset.getWALLPIXELSIZE() >> mip;
+        int w = (int)(end * stripWidth) - x;
+        if (first <= last)
+        {
+            ge.drawImage(gameAsset.getShadedScifiWall(mip, level), x, y, w, height, first, 0, last + 1, size);
+        }
+        else
+        {
+            // Columns running backwards come from the mirrored texture, read forwards
+            Image mirrored = gameAsset.getShadedMirroredScifiWall(mip, level);
+            int width = mirrored.getWidth(null);
+            ge.drawImage(mirrored, x, y, w, height, width - 1 - first, 0, width - last, size);
+        }
+        wallDraws++;
     }
 
     private double distance(double x1, double y1, double x2, double y2)
@@ -191,12 +469,13 @@ public class RayCaster
         wallType[rayIndex] = finalWallType;
 
         if (isVert)
-            imageWallSegment[rayIndex] = matchWallTexture(wallType[rayIndex], rayY[rayIndex]);
+            wallTextureX[rayIndex] = matchWallTexture(rayY[rayIndex]);
         else
-            imageWallSegment[rayIndex] = matchWallTexture(wallType[rayIndex], rayX[rayIndex]);
+            wallTextureX[rayIndex] = matchWallTexture(rayX[rayIndex]);
     }
 
-    private Image matchWallTexture(int wallType, double rayCoord)
+    // column of the wall texture where the ray hit
+    private int matchWallTexture(double rayCoord)
     {
         int maxSize = gameAsset.getWALLPIXELSIZE();
         int wallImageX = (int)((rayCoord % tileSize) / tileSize * maxSize);
@@ -206,7 +485,7 @@ public class RayCaster
         if (wallImageX >= maxSize)
             wallImageX = maxSize - 1;
 
-        return gameAsset.getImageStripsScifiWall(wallType, wallImageX);
+        return wallImageX;
     }
 
     // Getters
@@ -238,9 +517,14 @@ public class RayCaster
     {
         this.map = map;
     }
+    public void setLightMap(LightMap lightMap)
+    {
+        this.lightMap = lightMap;
+    }
+    // Clamped to MIN_RAYS to MAX_RAYS
     public void setNumRays(int numRays)
     {
-        this.numRays = numRays;
+        this.numRays = Math.max(MIN_RAYS, Math.min(MAX_RAYS, numRays));
     }
     public void setFov(double fov)
     {
@@ -250,4 +534,26 @@ public class RayCaster
     {
         return numRays;
     }
+    // Casts 1 (every column, the default), 2 or 4 interleaved phases of columns
+    public void setInterleave(int interleave)
+    {
+        this.interleave = interleave == 2 || interleave == 4 ? interleave : 1;
+        phase = 0;
+        complete = false;
+        castMap = null;
+    }
+    public int getInterleave()
+    {
+        return interleave;
+    }
+    // Wall drawImage calls in the last frame, after merging
+    public int getWallDraws()
+    {
+        return wallDraws;
+    }
+    // Rays actually cast since the start, cached rays are not counted
+    public long getRaysCast()
+    {
+        return raysCast;
+    }
 }
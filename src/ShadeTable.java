@@ -0,0 +1,172 @@
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+
+// Distance fog as precomputed shade levels. Every texel channel is scaled
+// by level / (LEVELS - 1) once, producing a darkened copy of an image per
+// brightness level. Walls and sprites then draw the copy for their level
+// instead of blending a darkening layer on top, and all of them share the
+// same fog curve.
+public class ShadeTable
+{
+    public static final int LEVELS = 32;
+
+    // Fog curve: fully dark at this distance, never darker than the minimum
+    public static final double FOG_DISTANCE = 200;
+    private static final double MIN_BRIGHTNESS = 0.1;
+
+    // Shaded copies of each source image and off-heap texture, built by
+    // prebuild when they are loaded so drawing never shades. Images are the
+    // enemy frames, kept as long as the frames are. Textures are the level's
+    // walls, dropped with them.
+    private static final Map<Image, Image[]> shaded = new HashMap<>();
+    private static final Map<OffHeapTexture, Image[]> shadedTextures = new HashMap<>();
+    private static volatile long shadedImageBytes = 0;
+    private static volatile long shadedTextureBytes = 0;
+
+    // Shade level for something at distance lit by light (1 is normal light)
+    public static int level(double distance, double light)
+    {
+        double brightness = Math.max(MIN_BRIGHTNESS, 1.0 - distance / FOG_DISTANCE) * light;
+        if (brightness >= 1)
+            return LEVELS - 1;
+        if (brightness <= 0)
+            return 0;
+        return (int)(brightness * (LEVELS - 1) + 0.5);
+    }
+
+    // The levels something drawn no nearer than nearest can be shaded to.
+    // Light ranges from LightMap.AMBIENT to LightMap.MAX_LIGHT.
+    public static int darkestLevel()
+    {
+        return level(Double.POSITIVE_INFINITY, LightMap.AMBIENT);
+    }
+
+    public static int brightestLevel(double nearest)
+    {
+        return level(nearest, LightMap.MAX_LIGHT);
+    }
+
+    // Builds the shaded copies of source for the levels darkestLevel() to
+    // brightestLevel(nearest). Levels outside them look up the nearest one built.
+    public static void prebuild(Image source, double nearest)
+    {
+        if (shaded.containsKey(source))
+            return;
+        int darkest = darkestLevel();
+        int brightest = brightestLevel(nearest);
+        Image[] levels = new Image[LEVELS];
+        for (int level = darkest; level <= brightest; level++)
+        {
+            if (level == LEVELS - 1)
+            {
+                levels[level] = source;
+                continue;
+            }
+            levels[level] = shade((BufferedImage)source, level, Kernels.get());
+            shadedImageBytes += 4L * source.getWidth(null) * source.getHeight(null);
+        }
+        fill(levels, darkest, brightest);
+        shaded.put(source, levels);
+    }
+
+    // Off-heap textures are copied to a heap image Java2D can draw at every
+    // level, full brightness included
+    public static void prebuild(OffHeapTexture source, double nearest)
+    {
+        if (shadedTextures.containsKey(source))
+            return;
+        int darkest = darkestLevel();
+        int brightest = brightestLevel(nearest);
+        Image[] levels = new Image[LEVELS];
+        for (int level = darkest; level <= brightest; level++)
+        {
+            levels[level] = shade(source, level, Kernels.get());
+            shadedTextureBytes += 4L * source.getWidth() * source.getHeight();
+        }
+        fill(levels, darkest, brightest);
+        shadedTextures.put(source, levels);
+    }
+
+    private static void fill(Image[] levels, int darkest, int brightest)
+    {
+        for (int level = 0; level < darkest; level++)
+        {
+            levels[level] = levels[darkest];
+        }
+        for (int level = brightest + 1; level < LEVELS; level++)
+        {
+            levels[level] = levels[brightest];
+        }
+    }
+
+    // The source image darkened to the given level, from the copies prebuild made
+    public static Image get(Image source, int level)
+    {
+        return shaded.get(source)[level];
+    }
+
+    public static Image get(OffHeapTexture source, int level)
+    {
+        return shadedTextures.get(source)[level];
+    }
+
+    // Drops the shaded copies of the level's textures, called when it is unloaded
+    public static void clearTextures()
+    {
+        shadedTextures.clear();
+        shadedTextureBytes = 0;
+    }
+
+    // Memory held by the shaded copies
+    public static long getShadedBytes()
+    {
+        return shadedImageBytes + shadedTextureBytes;
+    }
+
+    // One shaded copy, also timed by KernelBenchmark with each set of kernels
+    static BufferedImage shade(BufferedImage source, int level, Kernels kernels)
+    {
+        int width = source.getWidth();
+        int height = source.getHeight();
+
+        // An opaque copy of an opaque source keeps Java2D on its scaled blit loops
+        int type = source.getTransparency() == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB
+                                                                   : BufferedImage.TYPE_INT_ARGB;
+        BufferedImage image = new BufferedImage(width, height, type);
+        if (source.getType() == type)
+        {
+            // Same packed pixels in and out, copied a row at a time without
+            // going through the colour model, which costs more than shading
+            int[] pixels = (int[])source.getRaster().getDataElements(0, 0, width, height, null);
+            kernels.shade(pixels, pixels.length, level);
+            image.getRaster().setDataElements(0, 0, width, height, pixels);
+        }
+        else
+        {
+            int[] pixels = source.getRGB(0, 0, width, height, null, 0, width);
+            kernels.shade(pixels, pixels.length, level);
+            image.setRGB(0, 0, width, height, pixels, 0, width);
+        }
+        return image;
+    }
+
+    static BufferedImage shade(OffHeapTexture source, int level, Kernels kernels)
+    {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int[] pixels = new int[width * height];
+        source.read(pixels);
+        if (level < LEVELS - 1)
+        {
+            kernels.shade(pixels, pixels.length, level);
+        }
+
+        BufferedImage image = new BufferedImage(width, height, source.isOpaque() ? BufferedImage.TYPE_INT_RGB
+                                                                                 : BufferedImage.TYPE_INT_ARGB);
+        image.getRaster().setDataElements(0, 0, width, height, pixels);
+        return image;
+    }
+}
@@ -16,7 +16,7 @@ public class WeaponItem
         this.consumed = false;
     }
 
-    public void render(GameEngine engine, Player player, double[] rayDistances)
+    public void render(GameEngine engine, Player player, double[] rayDistances, int numRays)
     {
         if (consumed)
             return;
@@ -39,7 +39,6 @@ public class WeaponItem
         if (screenX < 0 || screenX >= screenWidth)
             return;
 
-        int numRays = rayDistances.length;
         double stripWidth = (double)screenWidth / numRays;
         int rayIndex = (int)(screenX / stripWidth);
 
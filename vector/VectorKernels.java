@@ -0,0 +1,86 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// SIMD versions of the Kernels, using the incubating Vector API. This file
+// is kept out of src so the game still builds without the module. To build
+// and run with it:
+//
+//   javac --add-modules jdk.incubator.vector -d out src/*.java vector/*.java
+//   java --add-modules jdk.incubator.vector -cp out Main
+//
+// Results match the scalar kernels bit for bit. Whatever does not fill a
+// whole vector at the end of an array is finished by the scalar loop.
+public class VectorKernels extends Kernels
+{
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    @Override public String getName()
+    {
+        return "vector " + INTS.vectorBitSize() + " bit";
+    }
+
+    @Override public void shade(int[] argb, int count, int level)
+    {
+        int bound = INTS.loopBound(count);
+        int i = 0;
+        for (; i < bound; i += INTS.length())
+        {
+            IntVector pixel = IntVector.fromArray(INTS, argb, i);
+            IntVector r = scale(pixel.lanewise(VectorOperators.LSHR, 16), level);
+            IntVector g = scale(pixel.lanewise(VectorOperators.LSHR, 8), level);
+            IntVector b = scale(pixel, level);
+            pixel.and(0xFF000000)
+                .or(r.lanewise(VectorOperators.LSHL, 16))
+                .or(g.lanewise(VectorOperators.LSHL, 8))
+                .or(b)
+                .intoArray(argb, i);
+        }
+
+        for (; i < count; i++)
+        {
+            argb[i] = shadePixel(argb[i], level);
+        }
+    }
+
+    // The shade of the low byte of every lane, as in Kernels.shadePixel
+    private static IntVector scale(IntVector channel, int level)
+    {
+        return channel.and(0xFF)
+            .mul(level)
+            .add(SHADE_ROUND)
+            .mul(SHADE_RECIPROCAL)
+            .lanewise(VectorOperators.LSHR, SHADE_SHIFT);
+    }
+
+    @Override public void integrate(float[] position, float[] velocity, int count, float step)
+    {
+        int bound = FLOATS.loopBound(count);
+        int i = 0;
+        for (; i < bound; i += FLOATS.length())
+        {
+            FloatVector v = FloatVector.fromArray(FLOATS, velocity, i);
+            FloatVector.fromArray(FLOATS, position, i).add(v.mul(step)).intoArray(position, i);
+        }
+        for (; i < count; i++)
+        {
+            position[i] += velocity[i] * step;
+        }
+    }
+
+    @Override public void add(float[] values, int count, float amount)
+    {
+        int bound = FLOATS.loopBound(count);
+        int i = 0;
+        for (; i < bound; i += FLOATS.length())
+        {
+            FloatVector.fromArray(FLOATS, values, i).add(amount).intoArray(values, i);
+        }
+        for (; i < count; i++)
+        {
+            values[i] += amount;
+        }
+    }
+}